@@ -0,0 +1,57 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** A scratch repository for the benchmarks that need one.
+ *
+ *  Repository takes its working directory from user.dir when the class is
+ *  loaded, so the first call of open points user.dir at a new temporary
+ *  directory before anything touches Repository, and every later call in
+ *  the same JVM gets the same repository.  JMH runs each benchmark in a
+ *  fork of its own, so benchmarks never share one. */
+class BenchmarkRepo {
+
+    /** The working directory of the repository of this JVM, or null. */
+    private static File dir;
+
+    /** Returns the working directory of a freshly initialized repository. */
+    static synchronized File open() {
+        if (dir == null) {
+            try {
+                dir = Files.createTempDirectory("gitlet-bench-").toFile();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            System.setProperty("user.dir", dir.getPath());
+            Repository repository = new Repository();
+            repository.init();
+            repository.commitUpdates();
+        }
+        return dir;
+    }
+
+    /** Writes COUNT working files of SIZE random bytes each, seeded by
+     *  SEED, and returns their names. */
+    static List<String> writeFiles(int count, int size, long seed) {
+        Random random = new Random(seed);
+        List<String> names = new ArrayList<String>(count);
+        byte[] contents = new byte[size];
+        for (int i = 0; i < count; i += 1) {
+            String name = String.format("file-%06d.txt", i);
+            random.nextBytes(contents);
+            Utils.writeContents(new File(open(), name), contents);
+            names.add(name);
+        }
+        return names;
+    }
+
+    /** Returns a made-up but well-formed object id for the number I. */
+    static String fakeId(int i) {
+        return Utils.sha1(Integer.toString(i));
+    }
+}
@@ -0,0 +1,147 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks and writes their results as JSON, so that a later
+ *  run can be compared against them.
+ *
+ *  Usage: java -jar benchmarks.jar [--out FILE] [--baseline FILE]
+ *  [--tolerance PERCENT] [JMH options]
+ *
+ *  The results go to FILE (target/jmh-result.json by default).  Given the
+ *  results of an earlier run as a baseline, every benchmark that got slower
+ *  by more than PERCENT (10 by default) is listed and the runner exits with
+ *  status 1.  Other options, such as a regular expression selecting the
+ *  benchmarks to run, are passed to JMH. */
+public class BenchmarkRunner {
+
+    /** Pulls the name, parameters and score of one result out of JMH's JSON. */
+    private static final Pattern BENCHMARK = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern PARAMS = Pattern.compile("\"params\"\\s*:\\s*\\{([^}]*)\\}");
+    private static final Pattern PARAM = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern SCORE = Pattern.compile(
+            "\"primaryMetric\"\\s*:\\s*\\{\\s*\"score\"\\s*:\\s*([-+0-9.eE]+|\"NaN\")");
+
+    public static void main(String[] args) throws RunnerException {
+        String out = "target/jmh-result.json";
+        String baseline = null;
+        double tolerance = 10;
+        List<String> jmhArgs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i += 1) {
+            if (args[i].equals("--out") && i + 1 < args.length) {
+                out = args[++i];
+            } else if (args[i].equals("--baseline") && i + 1 < args.length) {
+                baseline = args[++i];
+            } else if (args[i].equals("--tolerance") && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+
+        // read the baseline first, so a bad one fails before the benchmarks run.
+        Map<String, Double> before = baseline == null ? null : readResults(new File(baseline));
+
+        Options options;
+        try {
+            options = new OptionsBuilder()
+                    .parent(new CommandLineOptions(jmhArgs.toArray(new String[0])))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(out)
+                    .build();
+        } catch (CommandLineOptionException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(2);
+            return;
+        }
+        new File(out).getAbsoluteFile().getParentFile().mkdirs();
+        Collection<RunResult> results = new Runner(options).run();
+        if (before == null) {
+            return;
+        }
+
+        int regressions = 0;
+        for (RunResult result : results) {
+            String key = keyOf(result);
+            Double old = before.get(key);
+            if (old == null || old.isNaN()) {
+                continue;
+            }
+            double score = result.getPrimaryResult().getScore();
+            boolean higherIsBetter = result.getParams().getMode() == Mode.Throughput;
+            double change = (score - old) / old * 100;
+            if (higherIsBetter ? -change > tolerance : change > tolerance) {
+                System.out.printf("REGRESSION %s: %.3f -> %.3f %s (%+.1f%%)%n", key, old, score,
+                        result.getPrimaryResult().getScoreUnit(), change);
+                regressions += 1;
+            }
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%.%n", regressions, tolerance);
+            System.exit(1);
+        }
+        System.out.printf("No benchmark regressed by more than %.1f%%.%n", tolerance);
+    }
+
+    /** Returns the name of the benchmark of RESULT with its parameters. */
+    private static String keyOf(RunResult result) {
+        Map<String, String> params = new HashMap<String, String>();
+        for (String name : result.getParams().getParamsKeys()) {
+            params.put(name, result.getParams().getParam(name));
+        }
+        return keyOf(result.getParams().getBenchmark(), params);
+    }
+
+    /** Returns the name of BENCHMARK with the parameters PARAMS, in order. */
+    private static String keyOf(String benchmark, Map<String, String> params) {
+        StringBuilder key = new StringBuilder(benchmark);
+        for (String name : new TreeSet<String>(params.keySet())) {
+            key.append(' ').append(name).append('=').append(params.get(name));
+        }
+        return key.toString();
+    }
+
+    /** Returns the score of each benchmark in the JMH JSON results FILE. */
+    private static Map<String, Double> readResults(File file) {
+        Map<String, Double> scores = new HashMap<String, Double>();
+        String json = Utils.readContentsAsString(file);
+        // each result is an object of its own, starting with the JMH version.
+        for (String entry : json.split("\"jmhVersion\"")) {
+            Matcher benchmark = BENCHMARK.matcher(entry);
+            Matcher score = SCORE.matcher(entry);
+            if (!benchmark.find() || !score.find()) {
+                continue;
+            }
+            Map<String, String> params = new HashMap<String, String>();
+            Matcher block = PARAMS.matcher(entry);
+            if (block.find()) {
+                Matcher param = PARAM.matcher(block.group(1));
+                while (param.find()) {
+                    params.put(param.group(1), param.group(2));
+                }
+            }
+            String value = score.group(1);
+            scores.put(keyOf(benchmark.group(1), params),
+                    value.startsWith("\"") ? Double.NaN : Double.parseDouble(value));
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Looking up every blob of a repository, with an empty cache as the
+ *  first command of a process does and with a warm one. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlobBenchmark {
+
+    /** Number of blobs in the repository. */
+    @Param({"100", "1000"})
+    public int blobs;
+
+    /** Size of each blob, in bytes. */
+    @Param({"4096"})
+    public int size;
+
+    private List<String> ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        File dir = BenchmarkRepo.open();
+        ids = new ArrayList<String>(blobs);
+        for (String name : BenchmarkRepo.writeFiles(blobs, size, blobs)) {
+            ids.add(Blob.store(new File(dir, name)));
+        }
+    }
+
+    @Benchmark
+    public void getBlobCold(Blackhole blackhole) {
+        Blob.CACHE.clear();
+        for (String id : ids) {
+            blackhole.consume(Blob.getBlob(id));
+        }
+    }
+
+    @Benchmark
+    public void getBlobWarm(Blackhole blackhole) {
+        for (String id : ids) {
+            blackhole.consume(Blob.getBlob(id));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Reading and writing a commit with a large flat files map, in the Java
+ *  serialization older versions used and in the binary format, and
+ *  computing its id, which hashes the whole map. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommitEncodingBenchmark {
+
+    /** Number of files the commit refers to. */
+    @Param({"100", "10000"})
+    public int files;
+
+    private Commit commit;
+
+    private byte[] serialized;
+
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // the binary form of a commit made before trees, which keeps its files map.
+        BinaryWriter out = new BinaryWriter('C', 1);
+        out.writeString("a commit with many files").writeLong(1700000000000L)
+                .writeOptionalId(BenchmarkRepo.fakeId(-1)).writeVarint(files);
+        for (int i = 0; i < files; i += 1) {
+            out.writeString(String.format("src/dir-%03d/file-%06d.java", i % 100, i))
+                    .writeId(BenchmarkRepo.fakeId(i));
+        }
+        encoded = out.toByteArray();
+        commit = Commit.decode(encoded);
+        serialized = Utils.serialize(commit);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return Utils.serialize(commit);
+    }
+
+    @Benchmark
+    public Commit deserialize() {
+        return Utils.deserialize(serialized, Commit.class);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return commit.encode();
+    }
+
+    @Benchmark
+    public Commit decode() {
+        return Commit.decode(encoded);
+    }
+
+    @Benchmark
+    public String getId() {
+        return commit.getId();
+    }
+}
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Staging every file of a working directory, once with the stat data of
+ *  an earlier add to trust and once hashing every file, and writing the
+ *  resulting index. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StagingAreaBenchmark {
+
+    /** Number of working files. */
+    @Param({"100", "1000"})
+    public int files;
+
+    /** Size of each working file, in bytes. */
+    @Param({"4096"})
+    public int size;
+
+    private List<String> names;
+
+    /** The index as saved after every file was staged once. */
+    private byte[] saved;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        BenchmarkRepo.open();
+        names = BenchmarkRepo.writeFiles(files, size, files);
+        Thread.sleep(10); // so the files are older than the index and their stat data is trusted.
+        StagingArea stagingArea = new StagingArea();
+        for (String name : names) {
+            stagingArea.addForAddition(name);
+        }
+        Utils.writeContents(Repository.index, stagingArea.encode());
+        saved = stagingArea.encode();
+    }
+
+    @Benchmark
+    public StagingArea addCached() {
+        StagingArea stagingArea = StagingArea.load();
+        for (String name : names) {
+            stagingArea.addForAddition(name);
+        }
+        return stagingArea;
+    }
+
+    @Benchmark
+    public StagingArea addUncached() {
+        StagingArea stagingArea = new StagingArea();
+        for (String name : names) {
+            stagingArea.addForAddition(name);
+        }
+        return stagingArea;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return StagingArea.decode(saved).encode();
+    }
+}
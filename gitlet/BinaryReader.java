@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+
+/** Reads the compact binary form of a repository object written by
+ *  {@link BinaryWriter}. */
+class BinaryReader {
+
+    /** The encoded object. */
+    private final byte[] data;
+
+    /** Position of the next byte to read. */
+    private int pos;
+
+    /** The format version of the object. */
+    private final int version;
+
+    /** Starts reading DATA, which must hold an object of the given TYPE. */
+    BinaryReader(byte[] data, char type) {
+        if (!isEncoded(data, type)) {
+            throw Utils.error("Corrupt object.");
+        }
+        Profile.count(Profile.Counter.DECODE);
+        this.data = data;
+        this.version = data[3];
+        this.pos = 4;
+    }
+
+    /** Returns true iff DATA starts with the header of an object of TYPE. */
+    static boolean isEncoded(byte[] data, char type) {
+        return data.length >= 4 && data[0] == 'g' && data[1] == 'l' && data[2] == type;
+    }
+
+    /** Returns the format version of the object. */
+    int version() {
+        return version;
+    }
+
+    int readByte() {
+        return data[pos++] & 0xff;
+    }
+
+    long readVarint() {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    long readLong() {
+        long value = 0;
+        for (int k = 0; k < 8; k += 1) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    String readString() {
+        int length = (int) readVarint();
+        String s = new String(data, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+
+    String readId() {
+        String id = Utils.bytesToId(data, pos);
+        pos += Utils.UID_LENGTH / 2;
+        return id;
+    }
+
+    String readOptionalId() {
+        return readByte() == 0 ? null : readId();
+    }
+}
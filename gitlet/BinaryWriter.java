@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Builds the compact binary form of a repository object: a four-byte
+ *  header naming the object type and format version, followed by fields
+ *  written as varints, fixed-width longs, length-prefixed UTF-8 strings and
+ *  raw 20-byte ids.  See {@link BinaryReader}. */
+class BinaryWriter {
+
+    /** The bytes written so far. */
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /** Starts an object of the given TYPE (one letter) in format VERSION. */
+    BinaryWriter(char type, int version) {
+        out.write('g');
+        out.write('l');
+        out.write(type);
+        out.write(version);
+    }
+
+    /** Writes the byte B. */
+    BinaryWriter writeByte(int b) {
+        out.write(b);
+        return this;
+    }
+
+    /** Writes the non-negative VALUE as a varint. */
+    BinaryWriter writeVarint(long value) {
+        Delta.writeVarint(out, value);
+        return this;
+    }
+
+    /** Writes VALUE as eight big-endian bytes. */
+    BinaryWriter writeLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+        return this;
+    }
+
+    /** Writes the string S as its varint UTF-8 length and UTF-8 bytes. */
+    BinaryWriter writeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /** Writes the UID ID as 20 raw bytes. */
+    BinaryWriter writeId(String id) {
+        out.writeBytes(Utils.idToBytes(id));
+        return this;
+    }
+
+    /** Writes a presence byte followed, if ID is not null, by the UID ID. */
+    BinaryWriter writeOptionalId(String id) {
+        out.write(id == null ? 0 : 1);
+        return id == null ? this : writeId(id);
+    }
+
+    /** Returns the encoded object. */
+    byte[] toByteArray() {
+        Profile.count(Profile.Counter.ENCODE);
+        return out.toByteArray();
+    }
+}
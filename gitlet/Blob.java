@@ -1,39 +1,431 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/** A stored version of a file.  Blobs are kept as the raw bytes of the file
+ *  under their SHA-1 id, so they are binary safe and are copied in and out
+ *  without being held in memory: loose ones by the kernel, straight from
+ *  their file to the target, and ones packed whole by inflating them
+ *  through a fixed-size buffer.
+ *
+ *  Files of CHUNKED_SIZE bytes or more are instead split into
+ *  content-defined chunks (see {@link Chunker}), each stored once under its
+ *  own SHA-1 id, and the blob is the list of its chunks.  A new version of
+ *  such a file then costs only the chunks around what changed. */
 public class Blob implements Serializable {
 
+    /** Pinned so that blobs written as serialized objects by older versions
+     *  still deserialize. */
+    private static final long serialVersionUID = 5579810532587546986L;
+
+    /** Recently used blobs.  Packed and old-format blobs are cached with
+     *  their content; loose blobs only as cheap handles on their file. */
+    static final ObjectCache<Blob> CACHE = new ObjectCache<Blob>("blobs", 1024, 32L << 20);
+
+    /** Approximate size of a blob that does not hold its content. */
+    private static final int HANDLE_WEIGHT = 128;
+
+    /** The only classes a blob serialized by an older version is made of. */
+    private static final String LEGACY_CLASSES = "gitlet.Blob;java.lang.String;!*";
+
+    /** Size from which files are stored in chunks. */
+    static final long CHUNKED_SIZE = 1 << 20;
+
+    /** Most files stored at once: enough to keep the cores and the disk
+     *  busy, few enough not to have a file open per staged file. */
+    private static final int STORE_THREADS =
+            Math.max(4, Math.min(16, 2 * Runtime.getRuntime().availableProcessors()));
+
+    /** Version of the binary format of chunk lists. */
+    private static final int CHUNKS_FORMAT = 1;
+
+    /** Content of a blob in the old serialized format, null for raw blobs. */
     private String content ;
     private String id;
-    private  String fileName;
 
-    public Blob(File file) {
-        this.content = Utils.readContentsAsString(file); // Read file content
-        this.id = Utils.sha1(this.content); // Compute SHA-1 hash of the content
-        this.fileName = file.getName();
-    }
+    /** The loose file holding the raw content, if there is one. */
+    private transient File file;
 
-    public String getContent() {
-        return content;
+    /** The whole content, for blobs packed as deltas or in the old format. */
+    private transient byte[] bytes;
+
+    /** Where a pack holds the compressed content, for blobs packed whole. */
+    private transient Pack.Stored packed;
+
+    /** The ids of the chunks of the content in order, for chunked blobs. */
+    private transient List<String> chunks;
+
+    private Blob(String id, File file, byte[] bytes) {
+        this.id = id;
+        this.file = file;
+        this.bytes = bytes;
     }
+
     public String getId(){
         return id;
     }
 
+    /** Returns the whole content of this blob.  Only for callers that really
+     *  need it in memory, such as merge conflicts. */
+    public byte[] getContents() {
+        if (file != null) {
+            return Utils.readContents(file);
+        }
+        if (chunks != null || packed != null) {
+            try (InputStream in = openStream()) {
+                return in.readAllBytes();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return bytes;
+    }
+
+    /** Returns true iff this blob is stored as a list of chunks. */
+    public boolean isChunked() {
+        return chunks != null;
+    }
+
+    /** Returns a stream over the content of this blob. */
+    public InputStream openStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file.toPath());
+        }
+        if (chunks != null) {
+            Iterator<String> next = chunks.iterator();
+            return new SequenceInputStream(new Enumeration<InputStream>() {
+                @Override
+                public boolean hasMoreElements() {
+                    return next.hasNext();
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    try {
+                        return Files.newInputStream(ObjectDir.file(Repository.CHUNKS_DIR, next.next()).toPath());
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                }
+            });
+        }
+        if (packed != null) {
+            return packed.open();
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /** Writes the content of this blob to TARGET, creating or overwriting it. */
+    public void writeTo(File target) {
+        try {
+            if (file != null || chunks != null) {
+                try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    if (file != null) {
+                        transfer(file, out);
+                    } else {
+                        for (String chunk : chunks) {
+                            transfer(ObjectDir.file(Repository.CHUNKS_DIR, chunk), out);
+                        }
+                    }
+                }
+            } else if (packed != null) {
+                try (InputStream in = packed.open();
+                     OutputStream out = Files.newOutputStream(target.toPath())) {
+                    byte[] buffer = Utils.buffer();
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                        Profile.count(Profile.Counter.BYTES_WRITTEN, n);
+                    }
+                }
+            } else {
+                Files.write(target.toPath(), bytes);
+                Profile.count(Profile.Counter.BYTES_WRITTEN, bytes.length);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends the content of the file SOURCE to OUT, letting the kernel
+     *  copy it where it can. */
+    private static void transfer(File source, FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; ) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+            Profile.count(Profile.Counter.BYTES_READ, size);
+            Profile.count(Profile.Counter.BYTES_WRITTEN, size);
+        }
+    }
+
     public static Blob getBlob(String fileId){
-        File blobFile = new File(Repository.BLOBS_DIR, fileId);
-        if(!blobFile.exists()){
-            return null;
+        Blob cached = CACHE.get(fileId);
+        if(cached != null){
+            return cached;
+        }
+
+        long start = Profile.start();
+        Blob blob;
+        File blobFile = ObjectDir.file(Repository.BLOBS_DIR, fileId);
+        if(blobFile.exists()){
+            if(!Utils.isSerialized(blobFile)){
+                blob = new Blob(fileId, blobFile, null);
+            } else {
+                blob = decode(fileId, Utils.readContents(blobFile));
+            }
+        } else if (ObjectDir.file(Repository.CHUNKED_DIR, fileId).exists()) {
+            blob = decodeChunks(fileId, Utils.readContents(ObjectDir.file(Repository.CHUNKED_DIR, fileId)));
+        } else {
+            // not a loose object => look for it in the packs, reading it now only if it is a delta.
+            Pack.Stored whole = Pack.findWhole(fileId);
+            if (whole != null) {
+                blob = new Blob(fileId, null, null);
+                blob.packed = whole;
+            } else {
+                byte[] packed = Pack.read(fileId);
+                if(packed == null){
+                    return null;
+                }
+                blob = decode(fileId, packed);
+            }
+        }
+
+        if (Repository.verifyObjects) {
+            blob.verify();
+        }
+        CACHE.put(fileId, blob, blob.bytes != null ? blob.bytes.length
+                : HANDLE_WEIGHT + (blob.chunks != null ? blob.chunks.size() * 48 : 0));
+        Profile.count(Profile.Counter.BLOBS_LOADED);
+        Profile.stop(Profile.Timer.LOAD, start);
+        return blob;
+    }
+
+    /** Checks that the id of this blob matches its content. */
+    public void verify() {
+        String contentId;
+        if (chunks != null || packed != null) {
+            MessageDigest md = Utils.sha1Digest();
+            try (InputStream in = openStream()) {
+                byte[] buffer = Utils.buffer();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    md.update(buffer, 0, n);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            contentId = Utils.bytesToId(md.digest(), 0);
+        } else {
+            contentId = file != null ? Utils.sha1(file) : Utils.sha1(bytes);
+        }
+        if (!contentId.equals(id)) {
+            throw Utils.error("Blob %s is corrupt.", id);
+        }
+    }
+
+    /** Returns the blob FILEID whose stored form is STORED, which is either
+     *  the raw content or a blob serialized by an older version.  Raw
+     *  content hashes to FILEID, while a serialized blob does not: its id
+     *  is the hash of the content inside, so content that merely starts
+     *  like a serialized object is never deserialized.  Deserializing is
+     *  limited to the classes of a legacy blob all the same. */
+    private static Blob decode(String fileId, byte[] stored) {
+        if (Utils.isSerialized(stored) && !fileId.equals(Utils.sha1(stored))) {
+            try {
+                Blob legacy = Utils.deserialize(stored, Blob.class, LEGACY_CLASSES);
+                if (fileId.equals(legacy.id)) {
+                    return new Blob(fileId, null, legacy.content.getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IllegalArgumentException excp) {
+                // not a blob of an older version after all.
+            }
+        }
+        return new Blob(fileId, null, stored);
+    }
+
+    /** Returns the chunked blob FILEID whose chunk list is STORED: the
+     *  number of chunks, then the length and id of each. */
+    private static Blob decodeChunks(String fileId, byte[] stored) {
+        BinaryReader in = new BinaryReader(stored, 'K');
+        int count = (int) in.readVarint();
+        List<String> chunks = new ArrayList<String>(count);
+        for (int i = 0; i < count; i += 1) {
+            in.readVarint();
+            chunks.add(in.readId());
+        }
+        Blob blob = new Blob(fileId, null, null);
+        blob.chunks = chunks;
+        return blob;
+    }
+
+    /** Copies FILE into the blob store, hashing it on the way, and returns
+     *  the id of the resulting blob. */
+    public static String store(File file) {
+        if (file.length() >= CHUNKED_SIZE) {
+            return storeChunks(file);
+        }
+        long start = Profile.start();
+        MessageDigest md = Utils.sha1Digest();
+        File tmp;
+        try {
+            tmp = File.createTempFile("tmp-", null, Repository.BLOBS_DIR);
+            try (InputStream in = Files.newInputStream(file.toPath());
+                 OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                byte[] buffer = Utils.buffer();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    Profile.count(Profile.Counter.SHA1_BYTES, n);
+                    Profile.count(Profile.Counter.BYTES_READ, n);
+                    Profile.count(Profile.Counter.BYTES_WRITTEN, n);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        String fileId = Utils.bytesToId(md.digest(), 0);
+        Profile.count(Profile.Counter.SHA1);
+        Profile.stop(Profile.Timer.HASH, start); // the copy is timed with the hashing it overlaps.
+        File blobFile = ObjectDir.create(Repository.BLOBS_DIR, fileId);
+        try {
+            if (blobFile.exists()) {
+                Files.delete(tmp.toPath());
+            } else {
+                Files.move(tmp.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Transaction.track(blobFile);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return Utils.readObject(blobFile, Blob.class);
+        return fileId;
     }
 
-    public void save(){
-        File blobFile = new File(Repository.BLOBS_DIR, this.getId());
-        Utils.writeObject(blobFile, this);
+    /** Stores FILES, up to STORE_THREADS at once, calling STORED after each,
+     *  and returns the id of each in the same order.  Every blob is written
+     *  whole by one thread, so the result does not depend on their number;
+     *  the blobs become durable with the next transaction. */
+    public static List<String> storeAll(List<File> files, Runnable stored) {
+        List<String> ids = new ArrayList<String>(files.size());
+        if (files.size() <= 1) {
+            for (File file : files) {
+                ids.add(store(file));
+                stored.run();
+            }
+            return ids;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(STORE_THREADS, files.size()), task -> {
+            Thread thread = new Thread(task, "gitlet-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<String>> pending = new ArrayList<Future<String>>(files.size());
+            for (File file : files) {
+                pending.add(pool.submit(() -> {
+                    String id = store(file);
+                    stored.run();
+                    return id;
+                }));
+            }
+            for (Future<String> id : pending) {
+                ids.add(id.get());
+            }
+            return ids;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
+    /** Stores FILE as a list of content-defined chunks, writing only the
+     *  chunks not stored yet, and returns the id of the resulting blob. */
+    private static String storeChunks(File file) {
+        long start = Profile.start();
+        MessageDigest md = Utils.sha1Digest();
+        MessageDigest chunkMd;
+        try {
+            chunkMd = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+        List<String> ids = new ArrayList<String>();
+        List<Integer> lengths = new ArrayList<Integer>();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            Chunker chunker = new Chunker(in);
+            for (int n = chunker.next(); n > 0; n = chunker.next()) {
+                md.update(chunker.buffer(), chunker.offset(), n);
+                chunkMd.update(chunker.buffer(), chunker.offset(), n);
+                String chunkId = Utils.bytesToId(chunkMd.digest(), 0);
+                File chunkFile = ObjectDir.create(Repository.CHUNKS_DIR, chunkId);
+                if (!chunkFile.exists()) {
+                    File tmp = File.createTempFile("tmp-", null, Repository.CHUNKS_DIR);
+                    try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                        out.write(chunker.buffer(), chunker.offset(), n);
+                    }
+                    Files.move(tmp.toPath(), chunkFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    Transaction.track(chunkFile);
+                    Profile.count(Profile.Counter.BYTES_WRITTEN, n);
+                }
+                ids.add(chunkId);
+                lengths.add(n);
+                Profile.count(Profile.Counter.SHA1, 2);
+                Profile.count(Profile.Counter.SHA1_BYTES, 2L * n);
+                Profile.count(Profile.Counter.BYTES_READ, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String fileId = Utils.bytesToId(md.digest(), 0);
+        Profile.stop(Profile.Timer.HASH, start); // the chunk writes are timed with the hashing they overlap.
+
+        File listFile = ObjectDir.create(Repository.CHUNKED_DIR, fileId);
+        if (!listFile.exists()) {
+            BinaryWriter list = new BinaryWriter('K', CHUNKS_FORMAT).writeVarint(ids.size());
+            for (int i = 0; i < ids.size(); i += 1) {
+                list.writeVarint(lengths.get(i)).writeId(ids.get(i));
+            }
+            try {
+                File tmp = File.createTempFile("tmp-", null, Repository.CHUNKED_DIR);
+                Files.write(tmp.toPath(), list.toByteArray());
+                Files.move(tmp.toPath(), listFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Transaction.track(listFile);
+        }
+        return fileId;
+    }
 }
@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Splits a stream into content-defined chunks, FastCDC style.
+ *
+ *  A chunk ends where a rolling "gear" hash of the last bytes has a given
+ *  number of high bits clear, so boundaries depend only on the content
+ *  around them: inserting or appending bytes moves the boundaries near the
+ *  change only, and the chunks elsewhere keep their ids.  The first
+ *  MIN_SIZE bytes of a chunk are skipped, a stricter mask is used until
+ *  AVG_SIZE and a looser one after it (normalized chunking, which keeps
+ *  sizes close to the average), and no chunk exceeds MAX_SIZE. */
+class Chunker {
+
+    /** Smallest chunk, except the last one of a stream. */
+    static final int MIN_SIZE = 16 << 10;
+
+    /** Size chunks are normalized around. */
+    static final int AVG_SIZE = 64 << 10;
+
+    /** Largest chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Boundary masks before and after AVG_SIZE: two bits more and two
+     *  fewer than the 16 an average of 64K calls for.  High bits, since
+     *  bit K of the gear hash depends on the last K + 1 bytes. */
+    private static final long MASK_S = -1L << (64 - 18);
+    private static final long MASK_L = -1L << (64 - 14);
+
+    /** A random value for each byte, fixed so that the same content is
+     *  always split the same way. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            // splitmix64.
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** The stream being split. */
+    private final InputStream in;
+
+    /** Bytes read ahead; the current chunk and what follows it. */
+    private final byte[] buffer = new byte[2 * MAX_SIZE];
+
+    /** Position and length of the current chunk in the buffer. */
+    private int offset, length;
+
+    /** End of the bytes read into the buffer. */
+    private int end;
+
+    /** Whether the stream is exhausted. */
+    private boolean eof;
+
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Moves to the next chunk and returns its length, or 0 at the end of
+     *  the stream. */
+    int next() throws IOException {
+        int start = offset + length;
+        if (end - start < MAX_SIZE && !eof) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            while (end < buffer.length && !eof) {
+                int n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    end += n;
+                }
+            }
+        }
+        offset = start;
+        length = cutPoint(buffer, start, Math.min(end - start, MAX_SIZE));
+        return length;
+    }
+
+    /** Returns the buffer holding the current chunk. */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /** Returns the position of the current chunk in buffer(). */
+    int offset() {
+        return offset;
+    }
+
+    /** Returns the length of the first chunk of the N bytes of DATA
+     *  starting at OFF. */
+    static int cutPoint(byte[] data, int off, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(n, AVG_SIZE);
+        long fp = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            fp = (fp << 1) + GEAR[data[off + i] & 0xff];
+            if ((fp & MASK_S) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            fp = (fp << 1) + GEAR[data[off + i] & 0xff];
+            if ((fp & MASK_L) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
@@ -3,60 +3,126 @@ package gitlet;
 import java.io.File;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 public class Commit implements Serializable {
 
+    /** Pinned so that commits written by older versions still deserialize. */
+    private static final long serialVersionUID = -8039298193848667663L;
+
+    /** Recently used commits, so that HEAD, branch tips and the commits a
+     *  command walks repeatedly are decoded once per process. Commits are
+     *  never modified once saved, so the cached objects can be shared. */
+    static final ObjectCache<Commit> CACHE = new ObjectCache<Commit>("commits", 4096, 64L << 20);
+
     /** The message of this Commit. */
     private String message;
 
     /** The date when this Commit was created. */
     private Date timestamp;
 
-    /** Data structure(map) represents the blobs/files this commit references to with file name as a key and file blob/version/its content as a value. */
+    /** Data structure(map) represents the blobs/files this commit references to with file name as a key and file blob/version/its content as a value.
+     *  Only commits made before trees were introduced have it; it is null for the others. */
     private HashMap<String, String> files;
 
+    /** The id of the root tree of this Commit's snapshot. */
+    private String tree;
+
     /** The parent this Commit came from. */
     private String parent;
 
+    /** The branch merged into the parent by this Commit, or null if it is
+     *  not a merge commit. */
+    private String secondParent;
+
+    /** The id this Commit was saved or loaded under, null until then. */
+    private transient String id;
+
+    /** Files added (with their blob id) or removed (with null) since the
+     *  base snapshot, until the commit is saved. */
+    private transient HashMap<String, String> changes = new HashMap<String, String>();
+
+    /** Version of the binary format written by encode for commits with a flat files map. */
+    private static final int FORMAT_FLAT = 1;
+
+    /** Version of the binary format of the first commits that stored
+     *  their id along with the commit. */
+    private static final int FORMAT_ID = 3;
+
+    /** Version of the binary format written by encode for new commits,
+     *  which also stores the second parent of merge commits. */
+    private static final int FORMAT = 4;
+
+    /** The format this Commit was decoded from, which encode writes it in
+     *  again; FORMAT for new commits. */
+    private transient int format = FORMAT;
+
     public Commit(String message, String parent) {
+        this(message, parent, null);
+    }
+
+    /** A merge commit of the branch SECONDPARENT into PARENT, or an ordinary
+     *  commit if SECONDPARENT is null. */
+    public Commit(String message, String parent, String secondParent) {
         this.message = message;
         this.parent = parent;
+        this.secondParent = secondParent;
         this.timestamp = new Date(); // set to the current time.
-        files =  new HashMap<String , String>();
 
         if(parent == null)
             this.timestamp = new Date(0);
     }
 
     public boolean containsFile(String name) {
-        return files.containsKey(name);
+        return getFileId(name) != null;
     }
 
+    /** Returns the ids of all the files of this commit, by file name. */
     public HashMap<String, String> getFiles() {
-        return new HashMap<String, String>(this.files); // Shallow copy
+        HashMap<String, String> result = new HashMap<String, String>();
+        if (files != null) {
+            result.putAll(files);
+        } else if (tree != null) {
+            Tree.flatten(tree, "", result);
+        }
+        if (changes != null) {
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null)
+                    result.remove(change.getKey());
+                else
+                    result.put(change.getKey(), change.getValue());
+            }
+        }
+        return result;
     }
 
-    public void setFiles(HashMap<String, String> files) {
-        this.files = new HashMap<String, String>(files);
+    /** Starts the snapshot of this commit from the one of PARENT, sharing all its trees. */
+    public void setBase(Commit parent) {
+        this.tree = parent.getTree();
     }
 
-    public void removeFile(String fileName) {
-        files.remove(fileName);
+    /** Returns the id of the root tree of this commit.  For a commit made
+     *  before trees were introduced, its files are written as trees first. */
+    public String getTree() {
+        if (tree == null && files != null) {
+            tree = Tree.update(null, files); // not persisted: the id of such a commit covers its files map.
+        }
+        return tree;
     }
 
-    /** add reference to new/modified file added(staged)  */
-    public void addFile(String fileName) {
-        File file  = new File(Repository.CWD,  fileName);
-        String fileId = Utils.sha1(Utils.readContentsAsString(file));
-        files.put(fileName, fileId);
+    public void removeFile(String fileName) {
+        changes.put(fileName, null);
+    }
 
-        // create a blob for the added file if there is no such a one.
-        if(Blob.getBlob(fileId) == null){
-            Blob newBlob = new Blob(file);
-            newBlob.save();
-        }
+    /** add reference to new/modified file added(staged) with the content
+     *  FILEID, whose blob must be stored already. */
+    public void addFile(String fileName, String fileId) {
+        changes.put(fileName, fileId);
     }
 
     public String getMessage() {
@@ -65,49 +131,204 @@ public class Commit implements Serializable {
 
     public static Commit getCommit(String commitId){
 
-        File commitFile = new File(Repository.COMMITS_DIR, commitId);
-        if(!commitFile.exists()){
+        if(commitId == null){
             return null;
         }
-        return Utils.readObject(commitFile, Commit.class);
+
+        Commit cached = CACHE.get(commitId);
+        if(cached != null){
+            return cached;
+        }
+
+        long start = Profile.start();
+        File commitFile = ObjectDir.file(Repository.COMMITS_DIR, commitId);
+        byte[] stored;
+        if(commitFile.exists()){
+            stored = Utils.readContents(commitFile);
+        } else {
+            // not a loose object => look for it in the packs.
+            stored = Pack.read(commitId);
+            if(stored == null){
+                return null;
+            }
+        }
+
+        Commit commit = decode(stored);
+        if (commit.id != null && !commit.id.equals(commitId)) {
+            throw Utils.error("Commit %s is stored as %s.", commitId, commit.id);
+        }
+        commit.id = commitId;
+        if (Repository.verifyObjects) {
+            commit.verify();
+        }
+        CACHE.put(commitId, commit, stored.length);
+        Profile.count(Profile.Counter.COMMITS_LOADED);
+        Profile.stop(Profile.Timer.LOAD, start);
+        return commit;
+    }
+
+    /** Returns the compact binary form of this commit. */
+    public byte[] encode() {
+        int version = files != null ? FORMAT_FLAT : format;
+        BinaryWriter out = new BinaryWriter('C', version);
+        if (version >= FORMAT_ID) {
+            out.writeId(getId());
+        }
+        out.writeString(message)
+                .writeLong(timestamp.getTime())
+                .writeOptionalId(parent);
+        if (version >= FORMAT) {
+            out.writeOptionalId(secondParent);
+        }
+        if (files == null) {
+            return out.writeId(tree).toByteArray();
+        }
+        out.writeVarint(files.size());
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            out.writeString(entry.getKey()).writeId(entry.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the commit whose stored form is STORED, either written by
+     *  encode or serialized by an older version. */
+    public static Commit decode(byte[] stored) {
+        if (Utils.isSerialized(stored)) {
+            return Utils.deserialize(stored, Commit.class);
+        }
+        BinaryReader in = new BinaryReader(stored, 'C');
+        String storedId = in.version() >= FORMAT_ID ? in.readId() : null;
+        Commit commit = new Commit(in.readString(), null);
+        commit.id = storedId;
+        commit.format = in.version();
+        commit.timestamp = new Date(in.readLong());
+        commit.parent = in.readOptionalId();
+        if (in.version() >= FORMAT) {
+            commit.secondParent = in.readOptionalId();
+        }
+        if (in.version() != FORMAT_FLAT) {
+            commit.tree = in.readId();
+            return commit;
+        }
+        int count = (int) in.readVarint();
+        commit.files = new HashMap<String, String>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i += 1) {
+            commit.files.put(in.readString(), in.readId());
+        }
+        return commit;
+    }
+
+    /** Returns the ids of all commits, loose or packed, in lexicographic
+     *  order, merging the loose ones shard by shard with the packed ones. */
+    public static List<String> listIds() {
+        List<String> packed = Pack.ids(Pack.COMMIT);
+        List<String> ids = new ArrayList<String>();
+        int next = 0;
+        Iterator<String> loose = ObjectDir.ids(Repository.COMMITS_DIR).iterator();
+        while (loose.hasNext()) {
+            String id = loose.next();
+            while (next < packed.size() && packed.get(next).compareTo(id) < 0) {
+                ids.add(packed.get(next++));
+            }
+            if (next < packed.size() && packed.get(next).equals(id)) {
+                next += 1; // packed by a gc that had not deleted it yet.
+            }
+            ids.add(id);
+        }
+        ids.addAll(packed.subList(next, packed.size()));
+        return ids;
     }
 
     public void save(){
-        File commitFile = new File(Repository.COMMITS_DIR, this.getId());
-        Utils.writeObject(commitFile, this);
+        if (files == null) {
+            // write the trees along the changed paths only.
+            tree = Tree.update(tree, changes);
+            changes.clear();
+        }
+        id = getId();
+        File commitFile = ObjectDir.create(Repository.COMMITS_DIR, id);
+        byte[] stored = encode();
+        Utils.writeContents(commitFile, stored);
+        Transaction.track(commitFile);
+        CACHE.put(id, this, stored.length);
     }
 
+    /** Returns the id of this commit, computed once when it is saved and
+     *  stored with it from then on. */
     public String getId() {
-        return Utils.sha1(
-                message,
-                timestamp.toString(),
-                Utils.serialize(files),
-                parent != null ? parent : "null"  // Assuming parent is already the ID string
-        );
+        if (id != null) {
+            return id;
+        }
+        return computeId();
     }
 
-    public String getFileId(String fileName) {
-        return files.get(fileName);
+    /** Returns the SHA-1 of the content of this commit. */
+    private String computeId() {
+        if (files != null) {
+            return Utils.sha1(
+                    message,
+                    timestamp.toString(),
+                    Utils.serialize(files),
+                    parent != null ? parent : "null"  // Assuming parent is already the ID string
+            );
+        }
+        List<Object> vals = new ArrayList<Object>();
+        vals.add(message);
+        vals.add(Long.toString(timestamp.getTime()));
+        vals.add(tree);
+        vals.add(parent != null ? parent : "null");
+        if (secondParent != null) {
+            vals.add(secondParent);
+        }
+        return Utils.sha1(vals);
+    }
+
+    /** Checks that the id of this commit matches its content.  The ids of
+     *  commits with a flat files map hashed its Java serialization, which
+     *  decoding cannot reproduce, so only their stored id is trusted. */
+    public void verify() {
+        if (files == null && !computeId().equals(id)) {
+            throw Utils.error("Commit %s is corrupt.", id);
+        }
+    }
 
+    public String getFileId(String fileName) {
+        if (changes != null && changes.containsKey(fileName))
+            return changes.get(fileName);
+        if (files != null)
+            return files.get(fileName);
+        return tree != null ? Tree.lookup(tree, fileName) : null;
     }
 
     public String getParent() {
         return parent;
     }
 
+    /** Returns the id of the branch merged by this commit, or null if it
+     *  is not a merge commit. */
+    public String getSecondParent() {
+        return secondParent;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
     public String toString(){
 
         SimpleDateFormat timeForamt = new SimpleDateFormat("EEE, MMMM dd, yyyy HH:mm:ss z");
 
         StringBuilder printedCommit = new StringBuilder();
         printedCommit.append("===\n")
-                .append("commit ").append(this.getId()).append("\n")
-                .append("Date:   ").append(timeForamt.format(timestamp)).append("\n")
+                .append("commit ").append(this.getId()).append("\n");
+        if (secondParent != null) {
+            printedCommit.append("Merge: ").append(parent, 0, 7).append(" ")
+                    .append(secondParent, 0, 7).append("\n");
+        }
+        printedCommit.append("Date:   ").append(timeForamt.format(timestamp)).append("\n")
                 .append("\n")
                 .append(message).append("\n");
 
-        // if (commit is merged){......}
-
         return printedCommit.toString();
     }
 
@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** The commit-graph file: the shape of the history without the commits.
+ *
+ *  After the magic "CGPH" and a version, the file holds one fixed-width
+ *  record per commit: its raw 20-byte id, the record numbers of its first
+ *  and second parents (-1 when absent), its timestamp in milliseconds and
+ *  its generation number (1 for a root, otherwise one more than the largest
+ *  generation of its parents).  Records are only ever appended and a commit
+ *  is always recorded after its parents, so walking the history only reads
+ *  this one mapped file.
+ */
+class CommitGraph {
+
+    /** Current version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header. */
+    private static final int HEADER = 8;
+
+    /** Size of one record. */
+    private static final int RECORD = 20 + 4 + 4 + 8 + 4;
+
+    /** Record number standing for "no such commit". */
+    static final int NONE = -1;
+
+    /** Marks of mergeBase: reached from the first commit, from the second,
+     *  from both, and already taken off the queue. */
+    private static final byte FROM_A = 1, FROM_B = 2, BOTH = FROM_A | FROM_B, TAKEN = 4;
+
+    /** The graph of the current repository, loaded on first use. */
+    private static CommitGraph graph;
+
+    /** The graph file. */
+    private final File file;
+
+    /** The mapped records, null when they have to be mapped again. */
+    private MappedByteBuffer records;
+
+    /** Number of records. */
+    private int count;
+
+    /** Whether the file ends in part of a record, an append cut short. */
+    private boolean torn;
+
+    /** Record numbers by commit id. */
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+    private CommitGraph(File file) {
+        this.file = file;
+        map();
+        for (int i = 0; i < count; i += 1) {
+            positions.put(idAt(i), i);
+        }
+    }
+
+    /** Returns the graph of the current repository, rebuilding the file
+     *  from the commits themselves if it is missing, out of date with HEAD
+     *  or cut short by a crash. */
+    static synchronized CommitGraph get(String head) {
+        if (graph == null) {
+            if (Repository.COMMIT_GRAPH.exists()) {
+                graph = new CommitGraph(Repository.COMMIT_GRAPH);
+            }
+            if (graph == null || graph.torn || (head != null && graph.indexOf(head) == NONE)) {
+                rebuild();
+                graph = new CommitGraph(Repository.COMMIT_GRAPH);
+            }
+        }
+        return graph;
+    }
+
+    /** Forgets the loaded graph, so that the next get reads the file again. */
+    static synchronized void forget() {
+        graph = null;
+    }
+
+    /** Rewrites the graph file from every commit in the repository. */
+    static void rebuild() {
+        List<String> ids = Commit.listIds();
+        Map<String, Commit> commits = new HashMap<String, Commit>();
+        for (String id : ids) {
+            commits.put(id, Commit.getCommit(id));
+        }
+
+        // record the commits parents first.
+        List<String> order = new ArrayList<String>();
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (String id : ids) {
+            List<String> stack = new ArrayList<String>();
+            stack.add(id);
+            while (!stack.isEmpty()) {
+                String top = stack.get(stack.size() - 1);
+                if (index.containsKey(top)) {
+                    stack.remove(stack.size() - 1);
+                    continue;
+                }
+                Commit commit = commits.get(top);
+                String parent = commit.getParent();
+                String secondParent = commit.getSecondParent();
+                if (parent != null && commits.containsKey(parent) && !index.containsKey(parent)) {
+                    stack.add(parent);
+                } else if (secondParent != null && commits.containsKey(secondParent)
+                        && !index.containsKey(secondParent)) {
+                    stack.add(secondParent);
+                } else {
+                    index.put(top, order.size());
+                    order.add(top);
+                    stack.remove(stack.size() - 1);
+                }
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER + order.size() * RECORD);
+        out.putInt(0x43475048); // "CGPH"
+        out.putInt(VERSION);
+        int[] generations = new int[order.size()];
+        for (int i = 0; i < order.size(); i += 1) {
+            Commit commit = commits.get(order.get(i));
+            int parent = index.getOrDefault(commit.getParent(), NONE);
+            int secondParent = index.getOrDefault(commit.getSecondParent(), NONE);
+            generations[i] = 1 + Math.max(parent == NONE ? 0 : generations[parent],
+                    secondParent == NONE ? 0 : generations[secondParent]);
+            putRecord(out, order.get(i), parent, secondParent,
+                    commit.getTimestamp().getTime(), generations[i]);
+        }
+
+        try {
+            File tmp = new File(Repository.COMMIT_GRAPH.getPath() + ".tmp");
+            Files.write(tmp.toPath(), out.array());
+            Files.move(tmp.toPath(), Repository.COMMIT_GRAPH.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        graph = null;
+    }
+
+    /** Records the new commit ID made by COMMIT, whose parents must already
+     *  be in the graph. */
+    synchronized void add(String id, Commit commit) {
+        if (positions.containsKey(id)) {
+            return;
+        }
+        int parent = indexOf(commit.getParent());
+        int secondParent = indexOf(commit.getSecondParent());
+        int generation = 1 + Math.max(parent == NONE ? 0 : generationAt(parent),
+                secondParent == NONE ? 0 : generationAt(secondParent));
+
+        ByteBuffer out = ByteBuffer.allocate(RECORD);
+        putRecord(out, id, parent, secondParent, commit.getTimestamp().getTime(), generation);
+        try (OutputStream append = Files.newOutputStream(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            append.write(out.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        positions.put(id, count);
+        count += 1;
+        records = null;
+    }
+
+    /** Returns the record number of the commit ID, or NONE. */
+    int indexOf(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        return positions.getOrDefault(id, NONE);
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the id of commit I. */
+    String idAt(int i) {
+        byte[] raw = new byte[20];
+        records().get(HEADER + i * RECORD, raw);
+        return Utils.bytesToId(raw, 0);
+    }
+
+    /** Returns the record number of parent WHICH (0 or 1) of commit I, or
+     *  NONE. */
+    int parentAt(int i, int which) {
+        return records().getInt(HEADER + i * RECORD + 20 + 4 * which);
+    }
+
+    /** Returns the timestamp of commit I in milliseconds. */
+    long timeAt(int i) {
+        return records().getLong(HEADER + i * RECORD + 28);
+    }
+
+    /** Returns the generation number of commit I. */
+    int generationAt(int i) {
+        return records().getInt(HEADER + i * RECORD + 36);
+    }
+
+    /** Returns the record number of a latest common ancestor of commits A
+     *  and B, or NONE if they have none.
+     *
+     *  Both sides are walked together, always taking the queued commit of
+     *  highest generation and passing on to its parents which of A and B
+     *  reach it.  All the descendants of a commit have higher generations,
+     *  so by the time a commit is taken it is marked with every side that
+     *  reaches it, and the first commit reached from both is a common
+     *  ancestor that no other common ancestor descends from.  The walk
+     *  never goes below the generation of that commit. */
+    int mergeBase(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        byte[] reached = new byte[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+                (x, y) -> x.equals(y) ? 0
+                        : generationAt(x) != generationAt(y)
+                        ? Integer.compare(generationAt(y), generationAt(x))
+                        : Integer.compare(y, x));
+        reached[a] = FROM_A;
+        reached[b] = FROM_B;
+        queue.add(a);
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            if ((reached[i] & TAKEN) != 0) {
+                continue; // queued again after a second side reached it.
+            }
+            reached[i] |= TAKEN;
+            if ((reached[i] & BOTH) == BOTH) {
+                return i;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int parent = parentAt(i, which);
+                if (parent != NONE && (reached[parent] | (reached[i] & BOTH)) != reached[parent]) {
+                    reached[parent] |= reached[i] & BOTH;
+                    queue.add(parent);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the mapped records, mapping them again after appends. */
+    private MappedByteBuffer records() {
+        if (records == null) {
+            map();
+        }
+        return records;
+    }
+
+    /** Maps the graph file and counts its records. */
+    private void map() {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            records = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (records.capacity() < HEADER || records.getInt(0) != 0x43475048
+                || records.getInt(4) != VERSION) {
+            throw Utils.error("Bad commit-graph file.");
+        }
+        count = (records.capacity() - HEADER) / RECORD;
+        torn = (records.capacity() - HEADER) % RECORD != 0;
+    }
+
+    /** Writes one record to OUT. */
+    private static void putRecord(ByteBuffer out, String id, int parent1, int parent2,
+                                  long time, int generation) {
+        out.put(Utils.idToBytes(id));
+        out.putInt(parent1);
+        out.putInt(parent2);
+        out.putLong(time);
+        out.putInt(generation);
+    }
+}
@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Binary deltas between two versions of an object, in the copy/insert
+ *  style used by git packfiles.
+ *
+ *  A delta starts with the varint sizes of the base and of the result,
+ *  followed by instructions.  An instruction byte with the high bit set is
+ *  a copy from the base: bits 0-3 say which little-endian offset bytes
+ *  follow and bits 4-6 which size bytes follow.  Any other non-zero byte N
+ *  is an insert of the N literal bytes that follow it.
+ */
+class Delta {
+
+    /** Length of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Most candidate blocks examined per position, so that highly
+     *  repetitive bases do not make matching quadratic. */
+    private static final int MAX_PROBES = 64;
+
+    /** Largest number of bytes a single copy instruction may carry. */
+    private static final int MAX_COPY = 0xffffff;
+
+    /** Largest number of bytes a single insert instruction may carry. */
+    private static final int MAX_INSERT = 0x7f;
+
+    /** Returns a delta turning BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // index every BLOCK-aligned block of the base by its hash.
+        int buckets = Integer.highestOneBit(Math.max(base.length / BLOCK, 1)) * 2;
+        int[] heads = new int[buckets];
+        int[] next = new int[base.length / BLOCK + 1];
+        Arrays.fill(heads, -1);
+        for (int pos = 0; pos + BLOCK <= base.length; pos += BLOCK) {
+            int bucket = hash(base, pos) & (buckets - 1);
+            next[pos / BLOCK] = heads[bucket];
+            heads[bucket] = pos;
+        }
+
+        int insertStart = 0;
+        int pos = 0;
+        while (pos + BLOCK <= target.length) {
+            int bestOffset = -1;
+            int bestLength = 0;
+            if (base.length >= BLOCK) {
+                int bucket = hash(target, pos) & (buckets - 1);
+                int probes = 0;
+                for (int candidate = heads[bucket];
+                     candidate != -1 && probes < MAX_PROBES;
+                     candidate = next[candidate / BLOCK], probes += 1) {
+                    int length = matchLength(base, candidate, target, pos);
+                    if (length > bestLength) {
+                        bestOffset = candidate;
+                        bestLength = length;
+                    }
+                }
+            }
+
+            if (bestLength < BLOCK) {
+                pos += 1;
+                continue;
+            }
+
+            // grow the match backwards over bytes we were about to insert.
+            while (bestOffset > 0 && pos > insertStart
+                    && base[bestOffset - 1] == target[pos - 1]) {
+                bestOffset -= 1;
+                pos -= 1;
+                bestLength += 1;
+            }
+
+            writeInsert(out, target, insertStart, pos);
+            writeCopy(out, bestOffset, bestLength);
+            pos += bestLength;
+            insertStart = pos;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseSize = readVarint(delta, pos);
+        int resultSize = readVarint(delta, pos);
+        if (baseSize != base.length) {
+            throw Utils.error("Delta does not apply to its base.");
+        }
+
+        byte[] result = new byte[resultSize];
+        int written = 0;
+        int i = pos[0];
+        while (i < delta.length) {
+            int op = delta[i++] & 0xff;
+            if ((op & 0x80) != 0) {
+                int offset = 0;
+                int size = 0;
+                for (int b = 0; b < 4; b += 1) {
+                    if ((op & (1 << b)) != 0) {
+                        offset |= (delta[i++] & 0xff) << (8 * b);
+                    }
+                }
+                for (int b = 0; b < 3; b += 1) {
+                    if ((op & (0x10 << b)) != 0) {
+                        size |= (delta[i++] & 0xff) << (8 * b);
+                    }
+                }
+                System.arraycopy(base, offset, result, written, size);
+                written += size;
+            } else if (op != 0) {
+                System.arraycopy(delta, i, result, written, op);
+                i += op;
+                written += op;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        if (written != resultSize) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Returns the number of equal bytes of A starting at I and B starting
+     *  at J. */
+    private static int matchLength(byte[] a, int i, byte[] b, int j) {
+        int length = 0;
+        while (i + length < a.length && j + length < b.length
+                && a[i + length] == b[j + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at POS. */
+    private static int hash(byte[] data, int pos) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * 31 + data[pos + k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Writes insert instructions for DATA[FROM..TO) to OUT. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data,
+                                    int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    /** Writes copy instructions for LENGTH bytes at OFFSET to OUT. */
+    private static void writeCopy(ByteArrayOutputStream out, int offset,
+                                  int length) {
+        while (length > MAX_COPY) {
+            writeCopy(out, offset, MAX_COPY);
+            offset += MAX_COPY;
+            length -= MAX_COPY;
+        }
+        int op = 0x80;
+        ByteArrayOutputStream args = new ByteArrayOutputStream();
+        for (int b = 0; b < 4; b += 1) {
+            int v = (offset >>> (8 * b)) & 0xff;
+            if (v != 0) {
+                op |= 1 << b;
+                args.write(v);
+            }
+        }
+        for (int b = 0; b < 3; b += 1) {
+            int v = (length >>> (8 * b)) & 0xff;
+            if (v != 0) {
+                op |= 0x10 << b;
+                args.write(v);
+            }
+        }
+        out.write(op);
+        out.write(args.toByteArray(), 0, args.size());
+    }
+
+    /** Writes VALUE to OUT as an unsigned LEB128 varint. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads an unsigned varint from DATA at POS[0], advancing POS[0]. */
+    static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
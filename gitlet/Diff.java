@@ -0,0 +1,445 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line differences between two versions of a file, printed as a unified
+ *  diff.
+ *
+ *  Lines are interned to ints, so lines are compared as ints and both
+ *  versions are held as int arrays.  The common prefix and suffix of a
+ *  region are matched first.  Then the region's lines are counted on each
+ *  side, and the lines occurring least often, the same number of times on
+ *  both sides, are paired in order; the longest run of pairs in order on
+ *  both sides (patience diff, which these are when the lines are unique)
+ *  anchors matches that are extended both ways.  With no such line, the
+ *  line occurring least often in the old version anchors one match, the
+ *  longest it gives (histogram diff).  The gaps between matches are then
+ *  diffed the same way.  One pass over a region finds all its anchors, so
+ *  scattered changes take a few passes, not one per change.  Regions with
+ *  no rare enough common line fall back to Myers' O(ND) algorithm, and are
+ *  taken as replaced whole when even that would cost more than MAX_COST
+ *  edits.  Regions are processed from a stack rather than by recursion, as
+ *  they may be many. */
+class Diff {
+
+    /** Lines of context around each change. */
+    private static final int CONTEXT = 3;
+
+    /** Most occurrences in the old version of a line used as an anchor. */
+    private static final int MAX_OCCURRENCES = 64;
+
+    /** Most edits Myers' algorithm may look for in one region. */
+    private static final int MAX_COST = 1024;
+
+    /** Bytes looked at to tell binary content from text. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** The lines of the old and new versions, each with its newline. */
+    private final String[] oldLines, newLines;
+
+    /** The interned lines of the old and new versions. */
+    private final int[] a, b;
+
+    /** Which lines of the old version are deleted and of the new inserted. */
+    private final boolean[] deleted, inserted;
+
+    /** Occurrences in the current region of the old version, by line. */
+    private final int[] countA;
+
+    /** Occurrences in the current region of the new version, by line. */
+    private final int[] countB;
+
+    /** The first occurrence in the current region of the old version, by
+     *  line, and the next occurrence of the line at each position, or -1. */
+    private final int[] head, next;
+
+    private Diff(String[] oldLines, String[] newLines) {
+        this.oldLines = oldLines;
+        this.newLines = newLines;
+        Map<String, Integer> interned = new HashMap<String, Integer>();
+        a = intern(oldLines, interned);
+        b = intern(newLines, interned);
+        deleted = new boolean[a.length];
+        inserted = new boolean[b.length];
+        countA = new int[interned.size()];
+        countB = new int[interned.size()];
+        head = new int[interned.size()];
+        next = new int[a.length];
+    }
+
+    /** Prints the differences between FROM and TO, the old and new content
+     *  of the file FILENAME, either of them null if there is no such file,
+     *  to OUT.  Prints nothing if they are the same. */
+    static void print(PrintStream out, String fileName, byte[] from, byte[] to) {
+        if (from != null && to != null && Arrays.equals(from, to)) {
+            return;
+        }
+        out.println("diff --gitlet a/" + fileName + " b/" + fileName);
+        if (from == null) {
+            out.println("new file");
+        } else if (to == null) {
+            out.println("deleted file");
+        }
+        if ((from != null && isBinary(from)) || (to != null && isBinary(to))) {
+            out.println("Binary files " + (from == null ? "/dev/null" : "a/" + fileName) + " and "
+                    + (to == null ? "/dev/null" : "b/" + fileName) + " differ");
+            return;
+        }
+        out.println("--- " + (from == null ? "/dev/null" : "a/" + fileName));
+        out.println("+++ " + (to == null ? "/dev/null" : "b/" + fileName));
+        Diff diff = new Diff(lines(from), lines(to));
+        diff.compute();
+        diff.printHunks(out);
+    }
+
+    /** Returns true iff CONTENT looks binary: it has a NUL byte early on. */
+    private static boolean isBinary(byte[] content) {
+        for (int i = 0; i < Math.min(content.length, BINARY_PROBE); i += 1) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the lines of CONTENT (none if it is null), each with its
+     *  newline, except maybe the last. */
+    private static String[] lines(byte[] content) {
+        if (content == null) {
+            return new String[0];
+        }
+        String text = new String(content, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', start)) {
+            lines.add(text.substring(start, i + 1));
+            start = i + 1;
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    /** Returns the numbers INTERNED gives LINES, numbering new lines as
+     *  they come. */
+    private static int[] intern(String[] lines, Map<String, Integer> interned) {
+        int[] result = new int[lines.length];
+        for (int i = 0; i < lines.length; i += 1) {
+            Integer number = interned.get(lines[i]);
+            if (number == null) {
+                number = interned.size();
+                interned.put(lines[i], number);
+            }
+            result[i] = number;
+        }
+        return result;
+    }
+
+    /** Marks the deleted and inserted lines. */
+    private void compute() {
+        ArrayDeque<int[]> regions = new ArrayDeque<int[]>();
+        regions.push(new int[] {0, a.length, 0, b.length});
+        while (!regions.isEmpty()) {
+            int[] region = regions.pop();
+            int aLo = region[0], aHi = region[1], bLo = region[2], bHi = region[3];
+
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                replace(aLo, aHi, bLo, bHi);
+                continue;
+            }
+
+            int[] anchors = anchors(aLo, aHi, bLo, bHi);
+            if (anchors.length == 0) {
+                if (!myers(aLo, aHi, bLo, bHi)) {
+                    replace(aLo, aHi, bLo, bHi);
+                }
+                continue;
+            }
+            int pi = aLo, pj = bLo;
+            for (int k = 0; k < anchors.length; k += 2) {
+                int i = anchors[k], j = anchors[k + 1];
+                if (i < pi || j < pj) {
+                    continue; // within, or across, the match before.
+                }
+                while (i > pi && j > pj && a[i - 1] == b[j - 1]) {
+                    i -= 1;
+                    j -= 1;
+                }
+                int iEnd = i + 1, jEnd = j + 1;
+                while (iEnd < aHi && jEnd < bHi && a[iEnd] == b[jEnd]) {
+                    iEnd += 1;
+                    jEnd += 1;
+                }
+                regions.push(new int[] {pi, i, pj, j});
+                pi = iEnd;
+                pj = jEnd;
+            }
+            regions.push(new int[] {pi, aHi, pj, bHi});
+        }
+    }
+
+    /** Returns the positions in the old and new versions of the lines
+     *  anchoring matches in the given region, in pairs, in order on both
+     *  sides, or nothing if no line common to both is rare enough. */
+    private int[] anchors(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aHi - 1; i >= aLo; i -= 1) {
+            int line = a[i];
+            countA[line] += 1;
+            next[i] = countA[line] == 1 ? -1 : head[line];
+            head[line] = i;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            countB[b[j]] += 1;
+        }
+        int least = MAX_OCCURRENCES + 1;
+        for (int j = bLo; j < bHi; j += 1) {
+            int line = b[j];
+            if (countA[line] == countB[line] && countA[line] < least) {
+                least = countA[line];
+            }
+        }
+        int[] result = least <= MAX_OCCURRENCES ? patience(least, bLo, bHi) : rarest(aLo, aHi, bLo, bHi);
+        for (int i = aLo; i < aHi; i += 1) {
+            countA[a[i]] = 0;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            countB[b[j]] = 0;
+        }
+        return result;
+    }
+
+    /** Returns, as anchors() does, the longest run in order on both sides
+     *  of the pairs of occurrences of the lines occurring COUNT times on
+     *  each side of the region, whose new version is BLO to BHI, the Nth
+     *  occurrence in the old version of a line paired with its Nth in the
+     *  new.  Uses up the occurrence lists of those lines. */
+    private int[] patience(int count, int bLo, int bHi) {
+        int[] pairA = new int[bHi - bLo], pairB = new int[bHi - bLo];
+        int pairs = 0;
+        for (int j = bLo; j < bHi; j += 1) {
+            int line = b[j];
+            if (countA[line] == count && countB[line] == count) {
+                pairA[pairs] = head[line];
+                pairB[pairs] = j;
+                pairs += 1;
+                head[line] = next[head[line]];
+            }
+        }
+
+        // the pairs come in order in the new version; find the longest increasing run of their old positions.
+        int[] tails = new int[pairs], previous = new int[pairs];
+        int length = 0;
+        for (int k = 0; k < pairs; k += 1) {
+            int lo = 0, hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairA[tails[mid]] < pairA[k]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[k] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = k;
+            if (lo == length) {
+                length += 1;
+            }
+        }
+        int[] result = new int[2 * length];
+        for (int k = tails[length - 1], t = length - 1; k >= 0; k = previous[k], t -= 1) {
+            result[2 * t] = pairA[k];
+            result[2 * t + 1] = pairB[k];
+        }
+        return result;
+    }
+
+    /** Returns, as anchors() does, the start of the longest match in the
+     *  given region through an occurrence of the line common to both sides
+     *  that occurs least often in the old version, or nothing if it occurs
+     *  more than MAX_OCCURRENCES times. */
+    private int[] rarest(int aLo, int aHi, int bLo, int bHi) {
+        int least = MAX_OCCURRENCES + 1;
+        for (int j = bLo; j < bHi; j += 1) {
+            int line = b[j];
+            if (countA[line] > 0 && countA[line] < least) {
+                least = countA[line];
+            }
+        }
+        if (least > MAX_OCCURRENCES) {
+            return new int[0];
+        }
+        int bestI = -1, bestJ = -1, bestLength = 0;
+        for (int j = bLo; j < bHi; j += 1) {
+            if (countA[b[j]] != least) {
+                continue;
+            }
+            int furthest = j;
+            for (int i = head[b[j]]; i >= 0; i = next[i]) {
+                int back = 0, ahead = 1;
+                while (i - back > aLo && j - back > bLo && a[i - back - 1] == b[j - back - 1]) {
+                    back += 1;
+                }
+                while (i + ahead < aHi && j + ahead < bHi && a[i + ahead] == b[j + ahead]) {
+                    ahead += 1;
+                }
+                if (back + ahead > bestLength) {
+                    bestLength = back + ahead;
+                    bestI = i - back;
+                    bestJ = j - back;
+                }
+                furthest = Math.max(furthest, j + ahead - 1);
+            }
+            j = furthest; // the lines up to there would give the matches just tried.
+        }
+        return new int[] {bestI, bestJ};
+    }
+
+    /** Marks the shortest edit script of the given region found by Myers'
+     *  algorithm and returns true, or returns false without marking
+     *  anything if it needs more than MAX_COST edits. */
+    private boolean myers(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int max = Math.min(n + m, MAX_COST);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<int[]>();
+        for (int d = 0; d <= max; d += 1) {
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    backtrack(trace, d, aLo, bLo, n, m);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Marks the edits of the path Myers' algorithm found with D edits to
+     *  the end (N, M) of the region starting at ALO, BLO, from the furthest
+     *  points of each diagonal it recorded in TRACE before each step. */
+    private void backtrack(List<int[]> trace, int d, int aLo, int bLo, int n, int m) {
+        int x = n, y = m;
+        for (; d > 0; d -= 1) {
+            int[] v = trace.get(d); // holds diagonals -d..d of the step before.
+            int k = x - y;
+            int prevK = k == -d || (k != d && v[k - 1 + d] < v[k + 1 + d]) ? k + 1 : k - 1;
+            int prevX = v[prevK + d];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x -= 1;
+                y -= 1;
+            }
+            if (x == prevX) {
+                inserted[bLo + prevY] = true;
+            } else {
+                deleted[aLo + prevX] = true;
+            }
+            x = prevX;
+            y = prevY;
+        }
+    }
+
+    /** Marks the given region of the old version as replaced by the given
+     *  region of the new. */
+    private void replace(int aLo, int aHi, int bLo, int bHi) {
+        Arrays.fill(deleted, aLo, aHi, true);
+        Arrays.fill(inserted, bLo, bHi, true);
+    }
+
+    /** Prints the changes in hunks with CONTEXT lines around each. */
+    private void printHunks(PrintStream out) {
+        // each change: start and end in the old version, then in the new.
+        List<int[]> changes = new ArrayList<int[]>();
+        int i = 0, j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int iStart = i, jStart = j;
+            while (i < a.length && deleted[i]) {
+                i += 1;
+            }
+            while (j < b.length && inserted[j]) {
+                j += 1;
+            }
+            changes.add(new int[] {iStart, i, jStart, j});
+        }
+
+        for (int first = 0; first < changes.size(); ) {
+            int last = first;
+            while (last + 1 < changes.size() && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int aStart = Math.max(0, changes.get(first)[0] - CONTEXT);
+            int bStart = Math.max(0, changes.get(first)[2] - CONTEXT);
+            int aEnd = Math.min(a.length, changes.get(last)[1] + CONTEXT);
+            int bEnd = Math.min(b.length, changes.get(last)[3] + CONTEXT);
+            out.println("@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@");
+
+            int x = aStart, y = bStart;
+            for (int c = first; c <= last; c += 1) {
+                int[] change = changes.get(c);
+                while (x < change[0]) {
+                    printLine(out, ' ', oldLines[x]);
+                    x += 1;
+                    y += 1;
+                }
+                for (; x < change[1]; x += 1) {
+                    printLine(out, '-', oldLines[x]);
+                }
+                for (; y < change[3]; y += 1) {
+                    printLine(out, '+', newLines[y]);
+                }
+            }
+            for (; x < aEnd; x += 1) {
+                printLine(out, ' ', oldLines[x]);
+            }
+            first = last + 1;
+        }
+    }
+
+    /** Returns the lines START to END, exclusive, as a hunk header shows
+     *  them: the first line, counting from 1, and the number of lines. */
+    private static String range(int start, int end) {
+        int count = end - start;
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Prints LINE, marked by PREFIX. */
+    private static void printLine(PrintStream out, char prefix, String line) {
+        out.print(prefix);
+        if (line.endsWith("\n")) {
+            out.print(line);
+        } else {
+            out.println(line);
+            out.println("\\ No newline at end of file");
+        }
+    }
+}
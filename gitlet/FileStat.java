@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** The stat data of a working file together with the id its content had
+ *  when the data was taken.  While a file's size, modification time, inode
+ *  and change time are unchanged, its content is assumed unchanged too. */
+class FileStat implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Whether the file system offers the unix attribute view. */
+    private static boolean unixView = true;
+
+    /** Size of the file in bytes. */
+    final long size;
+
+    /** Last modification time, in nanoseconds. */
+    final long mtime;
+
+    /** Inode number, or 0 where unknown. */
+    final long inode;
+
+    /** Last status change time in nanoseconds, or 0 where unknown. */
+    final long ctime;
+
+    /** Id of the content of the file. */
+    final String id;
+
+    FileStat(long size, long mtime, long inode, long ctime, String id) {
+        this.size = size;
+        this.mtime = mtime;
+        this.inode = inode;
+        this.ctime = ctime;
+        this.id = id;
+    }
+
+    /** Returns the current stat data of FILE, with no id, or null if FILE
+     *  is not a normal file. */
+    static FileStat of(File file) {
+        try {
+            if (unixView) {
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                            "unix:size,lastModifiedTime,ino,ctime,isRegularFile");
+                    if (!(Boolean) attrs.get("isRegularFile")) {
+                        return null;
+                    }
+                    return new FileStat((Long) attrs.get("size"),
+                            nanos((FileTime) attrs.get("lastModifiedTime")),
+                            (Long) attrs.get("ino"), nanos((FileTime) attrs.get("ctime")), null);
+                } catch (UnsupportedOperationException excp) {
+                    unixView = false;
+                }
+            }
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            return new FileStat(attrs.size(), nanos(attrs.lastModifiedTime()), 0, 0, null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns this stat data, recording ID as the content id. */
+    FileStat withId(String id) {
+        return new FileStat(size, mtime, inode, ctime, id);
+    }
+
+    /** Returns true iff OTHER describes the same, unmodified file. */
+    boolean sameAs(FileStat other) {
+        return other != null && size == other.size && mtime == other.mtime
+                && inode == other.inode && ctime == other.ctime;
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+}
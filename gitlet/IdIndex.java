@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The sorted index of commit ids, for finding commits by a prefix of
+ *  their id.
+ *
+ *  After the magic "CIDX" and a version, the file holds the number of
+ *  commit-graph records it covers and the id of the last of them, a fan-out
+ *  table whose entry B is the number of ids whose first byte is at most B,
+ *  and the raw 20-byte ids in order.  A prefix is looked up by a binary
+ *  search within the range of its first byte.  Commits recorded in the
+ *  graph since the file was written are checked one by one, until there
+ *  are enough of them for the file to be written again.
+ */
+class IdIndex {
+
+    /** Current version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Position of the fan-out table. */
+    private static final int FANOUT = 4 + 4 + 4 + 20;
+
+    /** Position of the first id. */
+    private static final int IDS_START = FANOUT + 256 * 4;
+
+    /** Number of commits the graph may have beyond the ones in the file
+     *  before the file is written again. */
+    private static final int MAX_TAIL = 1024;
+
+    /** The index of the current repository, loaded on first use. */
+    private static IdIndex index;
+
+    /** The graph whose commits are indexed. */
+    private final CommitGraph graph;
+
+    /** The mapped file. */
+    private final MappedByteBuffer ids;
+
+    /** Number of commit-graph records in the file. */
+    private final int covered;
+
+    private IdIndex(CommitGraph graph, MappedByteBuffer ids) {
+        this.graph = graph;
+        this.ids = ids;
+        this.covered = ids.getInt(8);
+    }
+
+    /** Returns the id index of the current repository, whose head commit is
+     *  HEAD, writing the file again if it is missing, out of date with the
+     *  commit graph or too far behind it. */
+    static synchronized IdIndex get(String head) {
+        CommitGraph graph = CommitGraph.get(head);
+        if (index == null || index.graph != graph) {
+            index = Repository.COMMIT_IDS.exists() ? load(graph) : null;
+            if (index == null || graph.size() - index.covered > MAX_TAIL) {
+                write(graph);
+                index = load(graph);
+            }
+        }
+        return index;
+    }
+
+    /** Forgets the loaded index, so that the next get reads the file again. */
+    static synchronized void forget() {
+        index = null;
+    }
+
+    /** Returns the ids of the commits starting with PREFIX, in order. */
+    synchronized List<String> find(String prefix) {
+        List<String> result = new ArrayList<String>();
+        prefix = prefix.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            return result;
+        }
+
+        // the range of ids whose first byte can start with the prefix.
+        int firstByte = prefix.length() >= 2 ? Integer.parseInt(prefix.substring(0, 2), 16)
+                : Integer.parseInt(prefix, 16) << 4;
+        int lastByte = prefix.length() >= 2 ? firstByte : firstByte + 15;
+        int lo = firstByte == 0 ? 0 : ids.getInt(FANOUT + (firstByte - 1) * 4);
+        int hi = ids.getInt(FANOUT + lastByte * 4);
+
+        // find the first id not before the prefix.
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int count = ids.getInt(FANOUT + 255 * 4);
+        for (int i = lo; i < count && idAt(i).startsWith(prefix); i += 1) {
+            result.add(idAt(i));
+        }
+
+        for (int i = covered; i < graph.size(); i += 1) {
+            String id = graph.idAt(i);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Returns the id at position I of the file. */
+    private String idAt(int i) {
+        byte[] raw = new byte[20];
+        ids.get(IDS_START + i * 20, raw);
+        return Utils.bytesToId(raw, 0);
+    }
+
+    /** Returns the index in the file, or null if it does not match the
+     *  first records of GRAPH. */
+    private static IdIndex load(CommitGraph graph) {
+        MappedByteBuffer ids;
+        try (RandomAccessFile in = new RandomAccessFile(Repository.COMMIT_IDS, "r")) {
+            ids = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (ids.capacity() < IDS_START || ids.getInt(0) != 0x43494458 || ids.getInt(4) != VERSION) {
+            return null;
+        }
+        int covered = ids.getInt(8);
+        byte[] last = new byte[20];
+        ids.get(12, last);
+        if (covered > graph.size()
+                || (covered > 0 && !graph.idAt(covered - 1).equals(Utils.bytesToId(last, 0)))) {
+            return null; // the graph was rebuilt since.
+        }
+        return new IdIndex(graph, ids);
+    }
+
+    /** Rewrites the index file from every commit of GRAPH. */
+    private static void write(CommitGraph graph) {
+        int count = graph.size();
+        List<String> sorted = new ArrayList<String>(count);
+        for (int i = 0; i < count; i += 1) {
+            sorted.add(graph.idAt(i));
+        }
+        sorted.sort(null);
+
+        ByteBuffer out = ByteBuffer.allocate(IDS_START + count * 20);
+        out.putInt(0x43494458); // "CIDX"
+        out.putInt(VERSION);
+        out.putInt(count);
+        out.put(count > 0 ? Utils.idToBytes(graph.idAt(count - 1)) : new byte[20]);
+        int[] fanout = new int[256];
+        for (String id : sorted) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            out.putInt(total);
+        }
+        for (String id : sorted) {
+            out.put(Utils.idToBytes(id));
+        }
+
+        try {
+            File tmp = new File(Repository.COMMIT_IDS.getPath() + ".tmp");
+            Files.write(tmp.toPath(), out.array());
+            Files.move(tmp.toPath(), Repository.COMMIT_IDS.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,14 +1,9 @@
 package gitlet;
 
-<<<<<<< HEAD
-/** Driver class for Gitlet, a subset of the Git version-control system.
- *  @author TODO
- */
-public class Main {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND1> <OPERAND2> ... 
-=======
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
@@ -19,83 +14,79 @@ public class Main {
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
->>>>>>> master
      */
     public static void main(String[] args) {
         // TODO: what if args is empty?
 
-<<<<<<< HEAD
-        if(args.length==0){
-=======
+        // a running server saves starting up and loading everything again.
+        if (args.length > 0 && Server.forward(args)) {
+            return;
+        }
+        execute(args);
+    }
+
+    /** Runs the command line ARGS in this process. */
+    static void execute(String[] args) {
+
+        // --verify anywhere on the command line checks every object loaded against its id.
+        List<String> operands = new ArrayList<String>(Arrays.asList(args));
+        Repository.verifyObjects = operands.remove("--verify");
+        // --profile[=FILE], or GITLET_PROFILE, reports where the time went.
+        Profile.start(operands);
+        args = operands.toArray(new String[0]);
+
         if (args.length == 0) {
->>>>>>> master
             System.out.println("Please enter a command line argument");
             return;
         }
 
-<<<<<<< HEAD
-        Repository repository = new  Repository();
-=======
+        String outcome = "failed";
+        try {
+            run(args);
+            outcome = "ok";
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            outcome = "error";
+        } finally {
+            Profile.report(args[0], outcome);
+        }
+    }
+
+    /** Runs the command ARGS, applying its ref and index updates at the
+     *  end unless it fails. */
+    private static void run(String[] args) {
         Repository repository = new Repository();
->>>>>>> master
-        repository.backup();
+        try {
+            Profile.phase("load");
+            repository.backup();
+            Profile.phase("command");
+            dispatch(repository, args);
+            Profile.phase("commit");
+            repository.commitUpdates();
+        } finally {
+            repository.abortUpdates();
+        }
+    }
+
+    /** Runs the command ARGS on REPOSITORY. */
+    private static void dispatch(Repository repository, String[] args) {
 
         String firstArg = args[0];
 
-<<<<<<< HEAD
-        switch(firstArg) {
-=======
         switch (firstArg) {
->>>>>>> master
             case "init":
                 repository.init();
                 break;
 
             case "add":
 
-<<<<<<< HEAD
-                if(args.length == 2){
-                    String fileName =  args[1];
-                    repository.add(fileName);
-                }
-                else
-=======
-                if (args.length == 2) {
-                    String fileName = args[1];
-                    repository.add(fileName);
+                if (args.length >= 2) {
+                    repository.add(Arrays.asList(args).subList(1, args.length));
                 } else
->>>>>>> master
                     System.out.println("Please enter the file name");
                 break;
 
             case "commit":
-<<<<<<< HEAD
-                if(args.length == 2){
-                    String message =  args[1];
-                    repository.commit(message);
-                }
-                else
-                    System.out.println("enter the commit message");
-                break;
-
-                case "checkout":
-                    if(args.length == 2)
-                        repository.checkoutBranch(args[1]);
-                    else if(args.length == 3 && args[1].equals("--"))
-                        repository.checkout(args[2]);
-                    else if(args.length == 4 && args[2].equals("--"))
-                        repository.checkout(args[1] , args[3]);
-                    else
-                        System.out.println("Unrecognized command");
-                    break;
-
-            case "rm":
-                if(args.length == 2){
-                    String fileName =  args[1];
-                    repository.rm(fileName);
-                }
-                else
-=======
                 if (args.length == 2) {
                     String message = args[1];
                     repository.commit(message);
@@ -119,27 +110,15 @@ public class Main {
                     String fileName = args[1];
                     repository.rm(fileName);
                 } else
->>>>>>> master
                     System.out.println("enter the file name");
                 break;
 
             case "find":
-<<<<<<< HEAD
-                if(args.length == 2){
-                    String message = args[1];
-                    repository.find(message);
-                }
-                else
-                    System.out.println("enter the commit message");
-                break;
-
-                case "log":
-                    repository.log();
-                    break;
-=======
                 if (args.length == 2) {
                     String message = args[1];
                     repository.find(message);
+                } else if (args.length == 3 && args[1].equals("--grep")) {
+                    repository.findMatching(args[2]);
                 } else
                     System.out.println("enter the commit message");
                 break;
@@ -147,33 +126,16 @@ public class Main {
             case "log":
                 repository.log();
                 break;
->>>>>>> master
 
             case "global-log":
-                repository.global_log();
-                break;
-
-<<<<<<< HEAD
-            case"branch":
-                if(args.length == 2){
-                    String branchName =  args[1];
-                    repository.branch(branchName);
-                }
+                if (args.length == 1)
+                    repository.global_log(false);
+                else if (args.length == 2 && args[1].equals("--by-time"))
+                    repository.global_log(true);
                 else
-                    System.out.println("enter the branch name");
+                    System.out.println("Incorrect operands.");
                 break;
 
-                case "rm-branch":
-                    if(args.length == 2){
-                        String branchName =  args[1];
-                        repository.rm_branch(branchName);
-                    }
-                    else
-                        System.out.println("enter the branch name");
-                    break;
-
-            case""
-=======
             case "branch":
                 if (args.length == 2) {
                     String branchName = args[1];
@@ -190,9 +152,65 @@ public class Main {
                     System.out.println("enter the branch name");
                 break;
 
+            case "merge":
+                if (args.length == 2) {
+                    String branchName = args[1];
+                    repository.merge(branchName);
+                } else
+                    System.out.println("enter the branch name");
+                break;
+
+            case "status":
+                repository.status();
+                break;
+
+            case "monitor":
+                repository.validateInitialized();
+                if (args.length == 1) {
+                    Monitor.start();
+                } else if (args[1].equals("--stop")) {
+                    Monitor.stop();
+                } else if (args[1].equals("--foreground")) {
+                    Monitor.run();
+                } else
+                    System.out.println("Incorrect operands.");
+                break;
+
+            case "server":
+                repository.validateInitialized();
+                if (args.length == 1) {
+                    Server.start();
+                } else if (args[1].equals("--stop")) {
+                    Server.stop();
+                } else if (args[1].equals("--foreground")) {
+                    Server.run();
+                } else
+                    System.out.println("Incorrect operands.");
+                break;
+
+            case "reset":
+                if (args.length <= 2)
+                    repository.reset(args.length == 2 ? args[1] : null);
+                else
+                    System.out.println("Incorrect operands.");
+                break;
+
+            case "diff":
+                if (args.length == 1)
+                    repository.diff();
+                else if (args.length == 2 && (args[1].equals("--cached") || args[1].equals("--staged")))
+                    repository.diffCached();
+                else if (args.length == 3)
+                    repository.diff(args[1], args[2]);
+                else
+                    System.out.println("Incorrect operands.");
+                break;
+
+            case "gc":
+                repository.gc();
+                break;
 
             default:break;
->>>>>>> master
 
             // TODO: FILL THE REST IN
         }
@@ -0,0 +1,361 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/** An index of commit messages, so that find never has to read commits.
+ *
+ *  The file holds the magic "MIDX" and a version followed by one record per
+ *  commit: its raw 20-byte id, the length of its message and the message in
+ *  UTF-8.  Records are appended as commits are made.  When loaded, the
+ *  messages are hashed for exact lookups, and on the first pattern search
+ *  every message is broken into trigrams (runs of three characters) with
+ *  the list of messages containing each, so that only messages having all
+ *  the trigrams of the literal parts of a pattern are matched against it.
+ */
+class MessageIndex {
+
+    /** Current version of the file format. */
+    private static final int VERSION = 1;
+
+    /** The index of the current repository, loaded on first use. */
+    private static MessageIndex index;
+
+    /** The index file. */
+    private final File file;
+
+    /** Commit ids, by record number. */
+    private final List<String> ids = new ArrayList<String>();
+
+    /** The ids of all recorded commits. */
+    private final Set<String> known = new HashSet<String>();
+
+    /** Commit messages, by record number. */
+    private final List<String> messages = new ArrayList<String>();
+
+    /** Record numbers by message. */
+    private final Map<String, List<Integer>> exact = new HashMap<String, List<Integer>>();
+
+    /** Whether the file ends in part of a record, an append cut short. */
+    private boolean torn;
+
+    /** Record numbers of the messages containing each trigram, built on the
+     *  first search. */
+    private Map<Long, List<Integer>> trigrams;
+
+    private MessageIndex(File file) {
+        this.file = file;
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+        if (in.remaining() < 8 || in.getInt() != 0x4d494458 || in.getInt() != VERSION) { // "MIDX"
+            throw Utils.error("Bad message index.");
+        }
+        byte[] raw = new byte[20];
+        while (in.hasRemaining()) {
+            int length = in.remaining() < raw.length + 4 ? -1 : in.getInt(in.position() + raw.length);
+            if (length < 0 || length > in.remaining() - raw.length - 4) {
+                torn = true; // an append cut short.
+                break;
+            }
+            in.get(raw);
+            byte[] message = new byte[in.getInt()];
+            in.get(message);
+            remember(Utils.bytesToId(raw, 0), new String(message, StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Returns the message index of the current repository, rebuilding it
+     *  from the commits if it is missing, does not know HEAD or was cut
+     *  short by a crash. */
+    static synchronized MessageIndex get(String head) {
+        if (index == null) {
+            if (Repository.MESSAGE_INDEX.exists()) {
+                index = new MessageIndex(Repository.MESSAGE_INDEX);
+            }
+            if (index == null || index.torn || (head != null && !index.known.contains(head))) {
+                rebuild();
+                index = new MessageIndex(Repository.MESSAGE_INDEX);
+            }
+        }
+        return index;
+    }
+
+    /** Forgets the loaded index, so that the next get reads the file again. */
+    static synchronized void forget() {
+        index = null;
+    }
+
+    /** Rewrites the index file from every commit in the repository. */
+    static void rebuild() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(header());
+        for (String id : Commit.listIds()) {
+            out.writeBytes(record(id, Commit.getCommit(id).getMessage()));
+        }
+        try {
+            File tmp = new File(Repository.MESSAGE_INDEX.getPath() + ".tmp");
+            Files.write(tmp.toPath(), out.toByteArray());
+            Files.move(tmp.toPath(), Repository.MESSAGE_INDEX.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        index = null;
+    }
+
+    /** Records that commit ID has MESSAGE. */
+    synchronized void add(String id, String message) {
+        if (known.contains(id)) {
+            return; // already picked up by a rebuild.
+        }
+        try (OutputStream append = Files.newOutputStream(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            append.write(record(id, message));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        remember(id, message);
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE, sorted. */
+    synchronized List<String> find(String message) {
+        List<String> result = new ArrayList<String>();
+        for (int i : exact.getOrDefault(message, new ArrayList<Integer>())) {
+            result.add(ids.get(i));
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Returns the ids of the commits whose message contains a match of the
+     *  regular expression REGEX, sorted. */
+    synchronized List<String> search(String regex) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            throw Utils.error("Invalid pattern %s: %s.", regex, excp.getDescription());
+        }
+        if (trigrams == null) {
+            trigrams = new HashMap<Long, List<Integer>>();
+            for (int i = 0; i < messages.size(); i += 1) {
+                addTrigrams(i);
+            }
+        }
+
+        // messages lacking a trigram of the longest literal cannot match.
+        List<Integer> candidates = null;
+        String literal = longestLiteral(regex);
+        for (long trigram : trigramsOf(literal)) {
+            List<Integer> posting = trigrams.getOrDefault(trigram, new ArrayList<Integer>());
+            if (candidates == null || posting.size() < candidates.size()) {
+                candidates = posting;
+            }
+        }
+
+        List<String> result = new ArrayList<String>();
+        if (candidates == null) {
+            candidates = new ArrayList<Integer>();
+            for (int i = 0; i < messages.size(); i += 1) {
+                candidates.add(i);
+            }
+        }
+        for (int i : candidates) {
+            if (pattern.matcher(messages.get(i)).find()) {
+                result.add(ids.get(i));
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Adds the record of commit ID with MESSAGE to the in-memory tables. */
+    private void remember(String id, String message) {
+        ids.add(id);
+        known.add(id);
+        messages.add(message);
+        exact.computeIfAbsent(message, k -> new ArrayList<Integer>()).add(ids.size() - 1);
+        if (trigrams != null) {
+            addTrigrams(ids.size() - 1);
+        }
+    }
+
+    /** Adds message I to the posting lists of its trigrams. */
+    private void addTrigrams(int i) {
+        for (long trigram : trigramsOf(messages.get(i))) {
+            List<Integer> posting = trigrams.computeIfAbsent(trigram, k -> new ArrayList<Integer>());
+            if (posting.isEmpty() || posting.get(posting.size() - 1) != i) {
+                posting.add(i);
+            }
+        }
+    }
+
+    /** Returns the distinct trigrams of TEXT, each packed into a long. */
+    private static long[] trigramsOf(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] result = new long[text.length() - 2];
+        for (int k = 0; k + 3 <= text.length(); k += 1) {
+            result[k] = ((long) text.charAt(k) << 32) | ((long) text.charAt(k + 1) << 16)
+                    | text.charAt(k + 2);
+        }
+        return Arrays.stream(result).distinct().toArray();
+    }
+
+    /** Returns the longest run of characters every match of REGEX must
+     *  contain literally, or "" if there is none we can be sure of. */
+    static String longestLiteral(String regex) {
+        if (regex.contains("|") || regex.contains("(?")) {
+            return ""; // alternatives and flags may make any literal optional.
+        }
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            String literal = null;
+            int next = i + 1;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                next = i + 2;
+                if (escaped == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    end = end < 0 ? regex.length() : end;
+                    literal = regex.substring(i + 2, end);
+                    next = Math.min(end + 2, regex.length());
+                } else if (!Character.isLetterOrDigit(escaped)) {
+                    literal = String.valueOf(escaped);
+                } else {
+                    next = skipEscape(regex, i); // a class, anchor or coded character: not literal.
+                }
+            } else if (c == '[' || c == '(') {
+                next = skipGroup(regex, i);
+            } else if ("?*{".indexOf(c) >= 0) {
+                // the previous character was optional after all.
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                if (c == '{') {
+                    next = Math.max(regex.indexOf('}', i) + 1, i + 1);
+                }
+            } else if ("+.^$".indexOf(c) < 0) {
+                literal = String.valueOf(c);
+            }
+
+            if (literal != null) {
+                run.append(literal);
+            } else {
+                if (run.length() > best.length()) {
+                    best = run.toString();
+                }
+                // a quantifier after + or a group is not a new optional character.
+                run.setLength(0);
+                if (c == '+' || c == '[' || c == '(') {
+                    while (next < regex.length() && "?*+{".indexOf(regex.charAt(next)) >= 0) {
+                        next = regex.charAt(next) == '{'
+                                ? Math.max(regex.indexOf('}', next) + 1, next + 1) : next + 1;
+                    }
+                }
+            }
+            i = next;
+        }
+        return run.length() > best.length() ? run.toString() : best;
+    }
+
+    /** Returns the position just after the escape of a letter or digit
+     *  that starts at position START of REGEX, taking its operand too: the
+     *  digits of hex (x), unicode (u) and octal (0) escapes and of back
+     *  references, the character of control (c) and property (p, P)
+     *  escapes, and the {...} or <...> of x, N, p, P and k escapes. */
+    private static int skipEscape(String regex, int start) {
+        char escaped = regex.charAt(start + 1);
+        int i = start + 2;
+        if (i < regex.length() && "xNpPk".indexOf(escaped) >= 0 && "{<".indexOf(regex.charAt(i)) >= 0) {
+            int end = regex.indexOf(regex.charAt(i) == '{' ? '}' : '>', i);
+            return end < 0 ? regex.length() : end + 1;
+        }
+        int digits = 0;
+        switch (escaped) {
+            case 'x':
+                digits = 2;
+                break;
+            case 'u':
+                digits = 4;
+                break;
+            case 'c':
+            case 'p':
+            case 'P':
+                return Math.min(i + 1, regex.length());
+            case '0':
+                while (i < regex.length() && digits < 3 && regex.charAt(i) >= '0' && regex.charAt(i) <= '7') {
+                    i += 1;
+                    digits += 1;
+                }
+                return i;
+            default:
+                if (Character.isDigit(escaped)) {
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                        i += 1;
+                    }
+                }
+                return i;
+        }
+        return Math.min(i + digits, regex.length());
+    }
+
+    /** Returns the position just after the character class or group that
+     *  starts at position START of REGEX. */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = start; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 1;
+            } else if (inClass) {
+                inClass = c != ']';
+                if (!inClass && depth == 0) {
+                    return i + 1;
+                }
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return regex.length();
+    }
+
+    /** Returns the file header. */
+    private static byte[] header() {
+        return ByteBuffer.allocate(8).putInt(0x4d494458).putInt(VERSION).array();
+    }
+
+    /** Returns the file record of commit ID with MESSAGE. */
+    private static byte[] record(String id, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(20 + 4 + text.length)
+                .put(Utils.idToBytes(id)).putInt(text.length).put(text).array();
+    }
+}
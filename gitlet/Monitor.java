@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** A process watching the working directory, so that commands only look at
+ *  the files that changed instead of every file.
+ *
+ *  The monitor appends one line per event to the journal .gitlet/monitor,
+ *  after a first line of "S" and a session id: "P" and the name of a file
+ *  that was created, modified or deleted, "O" when events were lost, and
+ *  "C" and the name of a cookie file created in .gitlet.  A command asks
+ *  what changed since a token (a session id and a position in the journal)
+ *  by creating a cookie and waiting for its line, so that every change made
+ *  before it asked is in the journal.  The running monitor holds a lock on
+ *  .gitlet/monitor.lock; a command that can take the lock knows there is no
+ *  monitor and looks at every file.  Only the plain files directly in the
+ *  working directory are watched, as for plainFilenamesIn.
+ */
+class Monitor {
+
+    /** The journal of the running monitor. */
+    static final File JOURNAL = Utils.join(Repository.GITLET_DIR, "monitor");
+
+    /** The file locked by the running monitor. */
+    static final File LOCK = Utils.join(Repository.GITLET_DIR, "monitor.lock");
+
+    /** The file asking the running monitor to stop. */
+    private static final String STOP = "monitor-stop";
+
+    /** Start of the names of cookie files. */
+    private static final String COOKIE = "monitor-cookie-";
+
+    /** Size beyond which the monitor starts a new journal and session. */
+    private static final long MAX_JOURNAL = 16L << 20;
+
+    /** How long a command waits for its cookie or for a new monitor, in
+     *  milliseconds, before doing without the monitor. */
+    private static final long TIMEOUT = 2000;
+
+    /** What changed in the working directory since a token. */
+    static class Changes {
+
+        /** The token to ask with next time. */
+        final String token;
+
+        /** Names of the files that changed, or null if any may have. */
+        final Set<String> paths;
+
+        Changes(String token, Set<String> paths) {
+            this.token = token;
+            this.paths = paths;
+        }
+    }
+
+    /** Returns what changed since TOKEN (null if there is none yet), or null
+     *  if no monitor is running or it does not answer in time. */
+    static Changes changesSince(String token) {
+        if (!isRunning()) {
+            return null;
+        }
+        String cookie = COOKIE + ProcessHandle.current().pid() + "-" + System.nanoTime();
+        File cookieFile = Utils.join(Repository.GITLET_DIR, cookie);
+        try {
+            Files.createFile(cookieFile.toPath());
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            long pause = 1;
+            while (System.currentTimeMillis() < deadline) {
+                Changes changes = read(token, cookie);
+                if (changes != null) {
+                    return changes;
+                }
+                Thread.sleep(pause);
+                pause = Math.min(pause * 2, 20);
+            }
+            return null;
+        } catch (IOException | InterruptedException excp) {
+            return null;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /** Returns what the journal says changed since TOKEN up to the line of
+     *  COOKIE, or null if that line is not there yet. */
+    private static Changes read(String token, String cookie) throws IOException {
+        if (!JOURNAL.exists()) {
+            return null;
+        }
+        byte[] rest;
+        String session;
+        long start;
+        boolean everything = true;
+        try (RandomAccessFile in = new RandomAccessFile(JOURNAL, "r")) {
+            String header = in.readLine();
+            if (header == null || !header.startsWith("S")) {
+                return null;
+            }
+            session = header.substring(1);
+            start = in.getFilePointer();
+            if (token != null && token.startsWith(session + ":")) {
+                long position = Long.parseLong(token.substring(session.length() + 1));
+                if (position >= start && position <= in.length()) {
+                    start = position;
+                    everything = false;
+                }
+            }
+            in.seek(start);
+            rest = new byte[(int) (in.length() - start)];
+            in.readFully(rest);
+        }
+
+        Set<String> paths = new HashSet<String>();
+        int lineStart = 0;
+        for (int i = 0; i < rest.length; i += 1) {
+            if (rest[i] != '\n') {
+                continue;
+            }
+            String line = new String(rest, lineStart, i - lineStart, StandardCharsets.UTF_8);
+            lineStart = i + 1;
+            if (line.startsWith("P")) {
+                paths.add(line.substring(1));
+            } else if (line.equals("O")) {
+                everything = true;
+            } else if (line.equals("C" + cookie)) {
+                return new Changes(session + ":" + (start + lineStart), everything ? null : paths);
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if a monitor holds the lock of the current repository. */
+    static boolean isRunning() {
+        if (!LOCK.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException excp) {
+            return true; // held by this very process.
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Starts a monitor of the current repository in a new background
+     *  process and waits until it is watching. */
+    static void start() {
+        if (isRunning()) {
+            System.out.println("A monitor is already running.");
+            return;
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main", "monitor", "--foreground");
+        builder.directory(Repository.CWD);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            builder.start();
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (!isRunning() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("Cannot start the monitor: %s", excp.getMessage());
+        }
+    }
+
+    /** Asks the running monitor to stop. */
+    static void stop() {
+        if (!isRunning()) {
+            System.out.println("No monitor is running.");
+            return;
+        }
+        Utils.writeContents(Utils.join(Repository.GITLET_DIR, STOP), "");
+    }
+
+    /** Watches the working directory until asked to stop or until the
+     *  repository goes away. */
+    static void run() {
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                System.out.println("A monitor is already running.");
+                return;
+            }
+            WatchService watcher = FileSystems.getDefault().newWatchService();
+            Path cwd = Repository.CWD.toPath();
+            cwd.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            Repository.GITLET_DIR.toPath().register(watcher, ENTRY_CREATE);
+            OutputStream journal = newJournal();
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    StringBuilder lines = new StringBuilder();
+                    boolean stop = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            lines.append("O\n");
+                            continue;
+                        }
+                        String name = event.context().toString();
+                        if (!key.watchable().equals(cwd)) {
+                            if (name.startsWith(COOKIE)) {
+                                lines.append('C').append(name).append('\n');
+                            }
+                            stop |= name.equals(STOP);
+                        } else if (!name.equals(Repository.GITLET_DIR.getName())) {
+                            lines.append('P').append(name).append('\n');
+                        }
+                    }
+                    journal.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    journal.flush();
+                    if (stop || !key.reset()) {
+                        break; // asked to, or the directory is gone.
+                    }
+                    if (JOURNAL.length() > MAX_JOURNAL) {
+                        journal.close();
+                        journal = newJournal();
+                    }
+                }
+            } finally {
+                journal.close();
+                Utils.join(Repository.GITLET_DIR, STOP).delete();
+            }
+        } catch (IOException | InterruptedException excp) {
+            // the repository went away or we were told to stop.
+        }
+    }
+
+    /** Replaces the journal by an empty one of a new session and returns a
+     *  stream appending to it. */
+    private static OutputStream newJournal() throws IOException {
+        File tmp = new File(JOURNAL.getPath() + ".tmp");
+        String header = "S" + UUID.randomUUID().toString().replace("-", "") + "\n";
+        Files.write(tmp.toPath(), header.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), JOURNAL.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.newOutputStream(JOURNAL.toPath(), StandardOpenOption.APPEND);
+    }
+}
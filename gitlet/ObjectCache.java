@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A process-wide cache of decoded objects, keyed by id.  The cache holds at
+ *  most a given number of entries and a given approximate number of bytes,
+ *  evicting the least recently used entries first, and keeps hit, miss and
+ *  eviction counts.  It is safe to use from several threads.
+ *  @param <V> the type of the cached objects.
+ */
+class ObjectCache<V> {
+
+    /** One cached object and its approximate size. */
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** Name used when reporting statistics. */
+    private final String name;
+
+    /** Largest number of entries kept. */
+    private final int maxEntries;
+
+    /** Largest total approximate size of the entries kept. */
+    private final long maxBytes;
+
+    /** The entries, in least recently used order. */
+    private final LinkedHashMap<String, Entry<V>> entries =
+            new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+
+    /** Total approximate size of ENTRIES. */
+    private long bytes;
+
+    /** Statistics. */
+    private long hits, misses, evictions;
+
+    /** A cache called NAME holding at most MAXENTRIES objects and MAXBYTES
+     *  bytes. */
+    ObjectCache(String name, int maxEntries, long maxBytes) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns the object cached under ID, or null. */
+    synchronized V get(String id) {
+        Entry<V> entry = entries.get(id);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.value;
+    }
+
+    /** Caches VALUE under ID, with an approximate size of WEIGHT bytes.
+     *  Objects larger than the whole cache are not kept. */
+    synchronized void put(String id, V value, long weight) {
+        if (weight > maxBytes) {
+            return;
+        }
+        Entry<V> old = entries.put(id, new Entry<V>(value, weight));
+        if (old != null) {
+            bytes -= old.weight;
+        }
+        bytes += weight;
+
+        Iterator<Map.Entry<String, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Drops every cached object. */
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d entries, %d bytes, %d hits, %d misses, %d evictions",
+                name, entries.size(), bytes, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/** The layout of a directory of loose objects.  An object is stored in
+ *  the shard named by the first two hex digits of its id, under the other
+ *  38, so that no directory holds more than about a 256th of the objects.
+ *  Shards are listed one at a time and in order, so enumerating the
+ *  objects never lists or sorts the whole directory at once. */
+class ObjectDir {
+
+    /** Returns the file of the object ID in DIR, which need not exist. */
+    static File file(File dir, String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return new File(dir, id); // not an id => no such object.
+        }
+        return new File(new File(dir, id.substring(0, 2)), id.substring(2));
+    }
+
+    /** Returns true iff the repository holds the object ID, loose or
+     *  packed, found by its name alone without reading it. */
+    static boolean hasObject(String id) {
+        return file(Repository.BLOBS_DIR, id).exists()
+                || file(Repository.CHUNKED_DIR, id).exists()
+                || Pack.contains(id)
+                || file(Repository.TREES_DIR, id).exists()
+                || file(Repository.COMMITS_DIR, id).exists();
+    }
+
+    /** Returns the file to write the object ID of DIR to, creating its
+     *  shard if needed. */
+    static File create(File dir, String id) {
+        File file = file(dir, id);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    /** Returns the ids of the objects in DIR in order, listing one shard
+     *  after another as the stream is consumed. */
+    static Stream<String> ids(File dir) {
+        return IntStream.range(0, 256)
+                .mapToObj(shard -> String.format("%02x", shard))
+                .flatMap(shard -> {
+                    long start = Profile.start();
+                    String[] names = new File(dir, shard).list();
+                    Profile.count(Profile.Counter.LISTINGS);
+                    Profile.stop(Profile.Timer.LIST, start);
+                    if (names == null) {
+                        return Stream.empty();
+                    }
+                    Arrays.sort(names);
+                    return Arrays.stream(names)
+                            .filter(name -> name.length() == Utils.UID_LENGTH - 2)
+                            .map(name -> shard + name);
+                });
+    }
+
+    /** Moves the objects DIR holds directly, as repositories did before
+     *  shards, into their shards.  Safe to run again after a crash. */
+    static void migrate(File dir) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        List<Path> flat = new ArrayList<Path>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir.toPath())) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.length() == Utils.UID_LENGTH && Files.isRegularFile(entry)) {
+                    flat.add(entry);
+                }
+            }
+            for (Path entry : flat) {
+                Files.move(entry, create(dir, entry.getFileName().toString()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A read-only packfile: many objects stored in one file, some of them as
+ *  deltas against other objects of the same pack, together with a sorted
+ *  index (the .idx file) to find them by id.
+ *
+ *  The pack starts with the magic "PACK", a version and an object count,
+ *  followed by the entries and a trailing SHA-1 of everything before it.
+ *  Each entry is a type byte, the varint size of the object, for deltas the
+ *  varint distance back to the base entry, the varint length of the
+ *  compressed data and then the zlib-compressed data.
+ *
+ *  The index starts with the magic "PIDX" and a version, followed by a
+ *  256-entry fan-out table whose entry B counts the ids whose first byte is
+ *  at most B, then the sorted raw 20-byte ids, one type byte per id and one
+ *  8-byte pack offset per id.
+ *
+ *  Next to them a pack may have a Bloom filter of its ids (the .bloom
+ *  file): the magic "PBLM", a version, the number of probes K and the
+ *  number of bits M, then the M bits.  Id I is in the filter if bit
+ *  (H1 + J * H2) mod M is set for J = 0..K-1, where H1 and H2 are the
+ *  big-endian ints in bytes 4-7 and 8-11 of I, with H2 made odd.  Most
+ *  lookups of objects a pack does not hold stop there, before the index.
+ */
+class Pack {
+
+    /** Entry type of a commit. */
+    static final int COMMIT = 1;
+
+    /** Entry type of a blob. */
+    static final int BLOB = 2;
+
+    /** Entry type of a tree. */
+    static final int TREE = 3;
+
+    /** Entry type of a delta against an earlier entry of the same pack. */
+    static final int DELTA = 6;
+
+    /** Current version of the pack and index formats. */
+    static final int VERSION = 1;
+
+    /** Longest delta chain we are willing to follow. */
+    static final int MAX_DEPTH = 50;
+
+    /** Size in bytes of a raw object id. */
+    static final int ID_BYTES = 20;
+
+    /** Byte offset of the sorted ids in an index file. */
+    private static final int IDS_START = 8 + 256 * 4;
+
+    /** The packs of the current repository, loaded on first use. */
+    private static List<Pack> packs;
+
+    /** The packfile itself. */
+    private final File packFile;
+
+    /** Channel used to read entries of the packfile. */
+    private final FileChannel pack;
+
+    /** The mapped index file. */
+    private final MappedByteBuffer idx;
+
+    /** The mapped Bloom filter, or null if the pack has none. */
+    private final MappedByteBuffer bloom;
+
+    /** Number of probes per id and number of bits of the Bloom filter. */
+    private static final int BLOOM_PROBES = 7;
+    private static final int BLOOM_BITS_PER_ID = 10;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Opens the pack PACKFILE and its index IDXFILE. */
+    Pack(File packFile, File idxFile) {
+        this.packFile = packFile;
+        try (RandomAccessFile idxIn = new RandomAccessFile(idxFile, "r")) {
+            idx = idxIn.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    idxIn.length());
+            pack = new RandomAccessFile(packFile, "r").getChannel();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        bloom = loadBloom(bloomFile(packFile));
+        if (idx.getInt(0) != 0x50494458 || idx.getInt(4) != VERSION) { // "PIDX"
+            throw Utils.error("Bad pack index %s.", idxFile.getName());
+        }
+        count = idx.getInt(8 + 255 * 4);
+    }
+
+    /** Returns all the packs of the repository. */
+    static synchronized List<Pack> all() {
+        if (packs == null) {
+            packs = new ArrayList<Pack>();
+            List<String> names = Utils.plainFilenamesIn(Repository.PACKS_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".pack")) {
+                        String base = name.substring(0, name.length() - 5);
+                        File idxFile = new File(Repository.PACKS_DIR, base + ".idx");
+                        if (idxFile.exists()) {
+                            packs.add(new Pack(new File(Repository.PACKS_DIR, name), idxFile));
+                        }
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forgets the loaded packs, e.g. after the pack directory changed. */
+    static synchronized void reload() {
+        if (packs != null) {
+            for (Pack p : packs) {
+                p.close();
+            }
+        }
+        packs = null;
+    }
+
+    /** Returns the contents of the object ID from any pack, or null if no
+     *  pack contains it. */
+    static byte[] read(String id) {
+        for (Pack p : all()) {
+            int i = p.find(id);
+            if (i >= 0) {
+                byte[] contents = p.readAt(p.offsetAt(i), 0);
+                Profile.count(Profile.Counter.PACK_READS);
+                Profile.count(Profile.Counter.BYTES_READ, contents.length);
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the object ID if some pack holds it whole, so that it can be
+     *  streamed out of the pack without being held in memory, or null if no
+     *  pack holds it or it is stored as a delta. */
+    static Stored findWhole(String id) {
+        for (Pack p : all()) {
+            int i = p.find(id);
+            if (i >= 0) {
+                return p.storedAt(p.offsetAt(i));
+            }
+        }
+        return null;
+    }
+
+    /** An object a pack holds whole, as zlib-compressed data. */
+    static class Stored {
+
+        /** The pack holding it. */
+        private final Pack pack;
+
+        /** Position and length of its compressed data. */
+        private final long data;
+        private final int length;
+
+        /** Size of the object. */
+        final int size;
+
+        private Stored(Pack pack, long data, int length, int size) {
+            this.pack = pack;
+            this.data = data;
+            this.length = length;
+            this.size = size;
+        }
+
+        /** Returns a stream inflating the object as it is read. */
+        InputStream open() {
+            Profile.count(Profile.Counter.PACK_READS);
+            return new InflaterInputStream(pack.slice(data, length), new Inflater(), 8192) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+    }
+
+    /** Returns true iff some pack contains the object ID. */
+    static boolean contains(String id) {
+        for (Pack p : all()) {
+            if (p.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the ids of all packed objects of the given TYPE, in order. */
+    static List<String> ids(int type) {
+        List<String> result = new ArrayList<String>();
+        for (Pack p : all()) {
+            for (int i = 0; i < p.count; i += 1) {
+                if (p.typeAt(i) == type) {
+                    result.add(p.idAt(i));
+                }
+            }
+        }
+        if (all().size() > 1) {
+            result.sort(null); // one sorted run per pack => a linear merge.
+        }
+        return result;
+    }
+
+    /** Returns the packfile. */
+    File getFile() {
+        return packFile;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the position of ID in the index, or -1 if it is absent. */
+    int find(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.idToBytes(id);
+        if (!mightContain(key)) {
+            return -1;
+        }
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+        int hi = idx.getInt(8 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareIdAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the Bloom filter file of the pack PACKFILE. */
+    static File bloomFile(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(), name.substring(0, name.length() - 5) + ".bloom");
+    }
+
+    /** Returns the Bloom filter in FILE, mapped, or null if there is no
+     *  usable one. */
+    private static MappedByteBuffer loadBloom(File file) {
+        if (!file.exists()) {
+            return null; // packed before there were filters.
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer filter = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (filter.capacity() < 16 || filter.getInt(0) != 0x50424c4d || filter.getInt(4) != VERSION // "PBLM"
+                    || filter.capacity() < 16 + filter.getInt(12) / 8) {
+                return null;
+            }
+            return filter;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns a Bloom filter of IDS, as written to a .bloom file. */
+    static byte[] bloomFilter(List<String> ids) {
+        int bits = Math.max(64, (ids.size() * BLOOM_BITS_PER_ID + 63) / 64 * 64);
+        ByteBuffer filter = ByteBuffer.allocate(16 + bits / 8);
+        filter.putInt(0x50424c4d).putInt(VERSION).putInt(BLOOM_PROBES).putInt(bits);
+        for (String id : ids) {
+            ByteBuffer key = ByteBuffer.wrap(Utils.idToBytes(id));
+            int h1 = key.getInt(4);
+            int h2 = key.getInt(8) | 1;
+            for (int j = 0; j < BLOOM_PROBES; j += 1) {
+                int bit = Math.floorMod(h1 + j * h2, bits);
+                filter.put(16 + bit / 8, (byte) (filter.get(16 + bit / 8) | (1 << (bit % 8))));
+            }
+        }
+        return filter.array();
+    }
+
+    /** Returns false if the raw id KEY is surely not in this pack. */
+    private boolean mightContain(byte[] key) {
+        if (bloom == null) {
+            return true;
+        }
+        int probes = bloom.getInt(8);
+        int bits = bloom.getInt(12);
+        ByteBuffer k = ByteBuffer.wrap(key);
+        int h1 = k.getInt(4);
+        int h2 = k.getInt(8) | 1;
+        for (int j = 0; j < probes; j += 1) {
+            int bit = Math.floorMod(h1 + j * h2, bits);
+            if ((bloom.get(16 + bit / 8) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the id at position I of the index. */
+    String idAt(int i) {
+        byte[] raw = new byte[ID_BYTES];
+        idx.get(IDS_START + i * ID_BYTES, raw);
+        return Utils.bytesToId(raw, 0);
+    }
+
+    /** Returns the object type at position I of the index. */
+    int typeAt(int i) {
+        return idx.get(IDS_START + count * ID_BYTES + i);
+    }
+
+    /** Returns the pack offset at position I of the index. */
+    long offsetAt(int i) {
+        return idx.getLong(IDS_START + count * (ID_BYTES + 1) + i * 8);
+    }
+
+    /** Compares the id at position I of the index with KEY. */
+    private int compareIdAt(int i, byte[] key) {
+        int start = IDS_START + i * ID_BYTES;
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = (idx.get(start + k) & 0xff) - (key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the object stored whole at OFFSET, or null if it is a delta. */
+    private Stored storedAt(long offset) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(31);
+            pack.read(header, offset);
+            byte[] h = header.array();
+            if (h[0] == DELTA) {
+                return null;
+            }
+            int[] pos = {1};
+            int size = Delta.readVarint(h, pos);
+            int length = Delta.readVarint(h, pos);
+            return new Stored(this, offset + pos[0], length, size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the LENGTH bytes of the packfile at START,
+     *  read by position so that any number of them can be open at once. */
+    private InputStream slice(long start, int length) {
+        return new InputStream() {
+            private long pos = start;
+            private final long end = start + length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (pos >= end) {
+                    return -1;
+                }
+                int n = pack.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+                if (n < 0) {
+                    throw Utils.error("Truncated pack %s.", packFile.getName());
+                }
+                pos += n;
+                Profile.count(Profile.Counter.BYTES_READ, n);
+                return n;
+            }
+        };
+    }
+
+    /** Returns the object stored at OFFSET, applying deltas.  DEPTH is the
+     *  number of deltas already followed to get here. */
+    private byte[] readAt(long offset, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw Utils.error("Delta chain too long in %s.", packFile.getName());
+        }
+        try {
+            // type, size, base distance and data length fit in 31 bytes.
+            ByteBuffer header = ByteBuffer.allocate(31);
+            pack.read(header, offset);
+            byte[] h = header.array();
+            int[] pos = {1};
+            int type = h[0];
+            int size = Delta.readVarint(h, pos);
+            long base = type == DELTA ? offset - Delta.readVarint(h, pos) : -1;
+            int length = Delta.readVarint(h, pos);
+
+            ByteBuffer data = ByteBuffer.allocate(length);
+            long at = offset + pos[0];
+            while (data.hasRemaining()) {
+                if (pack.read(data, at + data.position()) < 0) {
+                    throw Utils.error("Truncated pack %s.", packFile.getName());
+                }
+            }
+            byte[] contents = inflate(data.array(), size);
+            if (type == DELTA) {
+                return Delta.apply(readAt(base, depth + 1), contents);
+            }
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SIZE bytes of the zlib-compressed DATA. */
+    private static byte[] inflate(byte[] data, int size) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[size];
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                n += inflater.inflate(result, n, size - n);
+                if (inflater.needsInput() || inflater.needsDictionary()) {
+                    break;
+                }
+            }
+            if (n != size) {
+                throw Utils.error("Corrupt packed object.");
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt packed object.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Releases the file handles of this pack. */
+    void close() {
+        try {
+            pack.close();
+        } catch (IOException excp) {
+            // nothing useful to do.
+        }
+    }
+}
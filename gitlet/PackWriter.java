@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/** Writes a new packfile and its index.  Objects are added one at a time,
+ *  each with an optional suggested base (usually the neighbouring version of
+ *  the same path or the child commit); an object is stored as a delta when
+ *  its base is still in the window and the delta is worth it.
+ *  See {@link Pack} for the file formats.
+ */
+class PackWriter {
+
+    /** Number of recently written objects kept as delta bases. */
+    private static final int WINDOW_OBJECTS = 1024;
+
+    /** Total size in bytes of the objects kept as delta bases. */
+    private static final long WINDOW_BYTES = 64L << 20;
+
+    /** Objects smaller than this are never deltified. */
+    private static final int MIN_DELTA_SIZE = 64;
+
+    /** Directory the pack is written to. */
+    private final File dir;
+
+    /** Temporary file the pack is written to before it gets its name. */
+    private final File tmpPack;
+
+    /** Buffered stream over TMPPACK. */
+    private final OutputStream out;
+
+    /** Running SHA-1 of everything written to the pack. */
+    private final MessageDigest digest;
+
+    /** Number of bytes written to the pack so far. */
+    private long written;
+
+    /** Offset, type and id of every object written so far. */
+    private final Map<String, long[]> entries = new HashMap<String, long[]>();
+
+    /** Recently written objects by id, in least recently used order. */
+    private final LinkedHashMap<String, byte[]> window =
+            new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /** Total size of the objects in WINDOW. */
+    private long windowBytes;
+
+    /** Delta chain depth of every deltified object written so far. */
+    private final Map<String, Integer> depths = new HashMap<String, Integer>();
+
+    /** Starts a new pack in DIR. */
+    PackWriter(File dir) {
+        this.dir = dir;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+            tmpPack = File.createTempFile("tmp-", ".pack", dir);
+            out = new BufferedOutputStream(Files.newOutputStream(tmpPack.toPath()));
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(0x5041434b); // "PACK"
+        header.putInt(Pack.VERSION);
+        header.putInt(0); // object count, unknown yet and only informative.
+        write(header.array());
+    }
+
+    /** Returns true iff the object ID has already been added. */
+    boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    /** Adds the object ID of the given TYPE with contents DATA, using the
+     *  object BASEID (which may be null) as a delta base if possible. */
+    void add(String id, int type, byte[] data, String baseId) {
+        if (entries.containsKey(id)) {
+            return;
+        }
+
+        byte[] base = baseId == null ? null : window.get(baseId);
+        int depth = base == null ? 0 : depths.getOrDefault(baseId, 0) + 1;
+        byte[] delta = null;
+        if (base != null && depth <= Pack.MAX_DEPTH && data.length >= MIN_DELTA_SIZE) {
+            delta = Delta.create(base, data);
+            if (delta.length > data.length / 2) {
+                delta = null; // not worth a chain.
+            }
+        }
+
+        long offset = written;
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        byte[] compressed;
+        if (delta != null) {
+            header.write(Pack.DELTA);
+            Delta.writeVarint(header, delta.length);
+            Delta.writeVarint(header, offset - entries.get(baseId)[0]);
+            compressed = deflate(delta);
+            depths.put(id, depth);
+        } else {
+            header.write(type);
+            Delta.writeVarint(header, data.length);
+            compressed = deflate(data);
+        }
+        Delta.writeVarint(header, compressed.length);
+        write(header.toByteArray());
+        write(compressed);
+
+        entries.put(id, new long[] {offset, type});
+        remember(id, data);
+    }
+
+    /** Keeps DATA of object ID as a possible delta base. */
+    private void remember(String id, byte[] data) {
+        window.put(id, data);
+        windowBytes += data.length;
+        while (window.size() > WINDOW_OBJECTS || windowBytes > WINDOW_BYTES) {
+            Map.Entry<String, byte[]> eldest = window.entrySet().iterator().next();
+            windowBytes -= eldest.getValue().length;
+            window.remove(eldest.getKey());
+        }
+    }
+
+    /** Completes the pack and writes its index, returning the new packfile. */
+    File finish() {
+        byte[] trailer = digest.digest();
+        try {
+            out.write(trailer);
+            out.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        String name = "pack-" + Utils.bytesToId(trailer, 0);
+        File packFile = new File(dir, name + ".pack");
+        File idxFile = new File(dir, name + ".idx");
+
+        List<String> ids = new ArrayList<String>(entries.keySet());
+        Collections.sort(ids);
+        int n = ids.size();
+        ByteBuffer idx = ByteBuffer.allocate(8 + 256 * 4 + n * (Pack.ID_BYTES + 1 + 8));
+        idx.putInt(0x50494458); // "PIDX"
+        idx.putInt(Pack.VERSION);
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            idx.putInt(total);
+        }
+        for (String id : ids) {
+            idx.put(Utils.idToBytes(id));
+        }
+        for (String id : ids) {
+            idx.put((byte) entries.get(id)[1]);
+        }
+        for (String id : ids) {
+            idx.putLong(entries.get(id)[0]);
+        }
+
+        try {
+            File tmpIdx = new File(dir, name + ".idx.tmp");
+            Files.write(tmpIdx.toPath(), idx.array());
+            File bloomFile = Pack.bloomFile(packFile);
+            Files.write(bloomFile.toPath(), Pack.bloomFilter(ids));
+            // the pack and its filter must be in place before its index makes it visible.
+            Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpIdx.toPath(), idxFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Transaction.track(packFile);
+            Transaction.track(bloomFile);
+            Transaction.track(idxFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return packFile;
+    }
+
+    /** Appends BYTES to the pack. */
+    private void write(byte[] bytes) {
+        try {
+            out.write(bytes);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        digest.update(bytes);
+        written += bytes.length;
+    }
+
+    /** Returns DATA compressed with zlib. */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                result.write(buffer, 0, n);
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** What one command spent its time on, for finding out why it was slow.
+ *
+ *  Profiling is turned on by the --profile option, anywhere on the command
+ *  line, or by the environment variable GITLET_PROFILE.  The command then
+ *  ends by writing one line of JSON with the wall time of each of its
+ *  phases, the time spent hashing, loading objects and listing
+ *  directories, and how many hashes, (de)serializations, bytes read and
+ *  written and objects loaded it took.  The line goes to standard error,
+ *  or is appended to FILE for --profile=FILE or GITLET_PROFILE=FILE.
+ *
+ *  Times of work done by several threads at once are the sum over the
+ *  threads, so they may exceed the wall time of the phase.  When profiling
+ *  is off every probe is a test of one static field. */
+class Profile {
+
+    /** Environment variable turning profiling on: 1 for standard error,
+     *  anything else names the file to append to. */
+    static final String ENV = "GITLET_PROFILE";
+
+    /** Whether the current command is profiled. */
+    static boolean enabled;
+
+    /** What is counted. */
+    enum Counter {
+        SHA1("sha1"), SHA1_BYTES("sha1Bytes"),
+        SERIALIZE("serialize"), DESERIALIZE("deserialize"),
+        ENCODE("encode"), DECODE("decode"),
+        BYTES_READ("bytesRead"), BYTES_WRITTEN("bytesWritten"), PACK_READS("packReads"),
+        COMMITS_LOADED("commitsLoaded"), TREES_LOADED("treesLoaded"), BLOBS_LOADED("blobsLoaded"),
+        LISTINGS("listings");
+
+        /** Name of the counter in the report. */
+        final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    /** What is timed apart from the phases. */
+    enum Timer {
+        HASH("hash"), LOAD("load"), LIST("list");
+
+        /** Name of the timer in the report. */
+        final String key;
+
+        Timer(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final LongAdder[] counts = new LongAdder[Counter.values().length];
+    private static final LongAdder[] nanos = new LongAdder[Timer.values().length];
+
+    /** Wall time of each phase so far, in nanoseconds, in order. */
+    private static final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    /** The phase under way and when it started. */
+    private static String phase;
+    private static long phaseStart;
+
+    /** When the command started. */
+    private static long commandStart;
+
+    /** File to append the report to, or null for standard error. */
+    private static String output;
+
+    static {
+        for (int i = 0; i < counts.length; i += 1) {
+            counts[i] = new LongAdder();
+        }
+        for (int i = 0; i < nanos.length; i += 1) {
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    /** Turns profiling of the command about to run on or off, as asked by
+     *  the --profile option in OPERANDS, which is removed from them, or by
+     *  the environment, and starts from zero. */
+    static void start(List<String> operands) {
+        enabled = false;
+        output = null;
+        String env = System.getenv(ENV);
+        if (env != null && !env.isEmpty() && !env.equals("0")) {
+            enabled = true;
+            output = env.equals("1") ? null : env;
+        }
+        for (int i = 0; i < operands.size(); i += 1) {
+            String operand = operands.get(i);
+            if (operand.equals("--profile") || operand.startsWith("--profile=")) {
+                enabled = true;
+                output = operand.length() > "--profile=".length()
+                        ? operand.substring("--profile=".length()) : null;
+                operands.remove(i);
+                break;
+            }
+        }
+        if (!enabled) {
+            return;
+        }
+        for (LongAdder count : counts) {
+            count.reset();
+        }
+        for (LongAdder time : nanos) {
+            time.reset();
+        }
+        phases.clear();
+        phase = null;
+        commandStart = System.nanoTime();
+    }
+
+    /** Ends the current phase, if any, and starts the phase NAME. */
+    static void phase(String name) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (phase != null) {
+            phases.merge(phase, now - phaseStart, Long::sum);
+        }
+        phase = name;
+        phaseStart = now;
+    }
+
+    /** Adds one to COUNTER. */
+    static void count(Counter counter) {
+        if (enabled) {
+            counts[counter.ordinal()].increment();
+        }
+    }
+
+    /** Adds N to COUNTER. */
+    static void count(Counter counter, long n) {
+        if (enabled) {
+            counts[counter.ordinal()].add(n);
+        }
+    }
+
+    /** Returns the time to pass to stop at the end of the timed work. */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Adds the time since START, from start(), to TIMER. */
+    static void stop(Timer timer, long start) {
+        if (enabled) {
+            nanos[timer.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    /** Ends the last phase and reports the command COMMAND, which ended
+     *  with OUTCOME ("ok", "error" or "failed"). */
+    static void report(String command, String outcome) {
+        if (!enabled) {
+            return;
+        }
+        phase(null);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"command\":").append(quote(command))
+                .append(",\"outcome\":").append(quote(outcome))
+                .append(",\"wallMs\":").append(millis(System.nanoTime() - commandStart))
+                .append(",\"phasesMs\":{");
+        String separator = "";
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(':').append(millis(entry.getValue()));
+            separator = ",";
+        }
+        json.append("},\"timeMs\":{");
+        separator = "";
+        for (Timer timer : Timer.values()) {
+            json.append(separator).append(quote(timer.key)).append(':')
+                    .append(millis(nanos[timer.ordinal()].sum()));
+            separator = ",";
+        }
+        json.append("},\"counts\":{");
+        separator = "";
+        for (Counter counter : Counter.values()) {
+            json.append(separator).append(quote(counter.key)).append(':')
+                    .append(counts[counter.ordinal()].sum());
+            separator = ",";
+        }
+        json.append("}}");
+        enabled = false;
+
+        if (output == null) {
+            System.err.println(json);
+            return;
+        }
+        File file = new File(output);
+        if (!file.isAbsolute()) {
+            file = new File(Repository.CWD, output);
+        }
+        try {
+            Files.write(file.toPath(),
+                    (json + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            System.err.println("Cannot write the profile to " + output + ": " + excp.getMessage());
+        }
+    }
+
+    /** Returns NANOS as milliseconds with three decimals. */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
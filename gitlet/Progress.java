@@ -0,0 +1,58 @@
+package gitlet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A progress line for long operations, such as "Hashing files:  42%
+ *  (4200/10000)", shown on standard error while it is a terminal and only
+ *  for operations on many items, so that the output of commands stays as
+ *  it is. */
+class Progress {
+
+    /** Number of items below which no progress is shown. */
+    private static final int MIN_ITEMS = 1000;
+
+    /** What is being done. */
+    private final String title;
+
+    /** Number of items to do. */
+    private final int total;
+
+    /** Number of items done. */
+    private final AtomicInteger done = new AtomicInteger();
+
+    /** Last percentage shown, -1 before the first. */
+    private int shown = -1;
+
+    /** Whether progress is shown at all. */
+    private final boolean visible;
+
+    Progress(String title, int total) {
+        this.title = title;
+        this.total = total;
+        this.visible = total >= MIN_ITEMS && System.console() != null;
+    }
+
+    /** Notes that one more item is done.  May be called from any thread. */
+    void step() {
+        int count = done.incrementAndGet();
+        if (visible) {
+            show(count);
+        }
+    }
+
+    /** Ends the progress line. */
+    void done() {
+        if (visible) {
+            show(total);
+            System.err.println(", done.");
+        }
+    }
+
+    private synchronized void show(int count) {
+        int percent = (int) (100L * count / total);
+        if (percent != shown) {
+            shown = percent;
+            System.err.printf("\r%s: %3d%% (%d/%d)", title, percent, count, total);
+        }
+    }
+}
@@ -1,10 +1,30 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -29,9 +49,45 @@ public class Repository implements Serializable {
      */
     public static final File BLOBS_DIR = join(GITLET_DIR, "Blobs");
 
+    /**
+     * The Trees directory.
+     */
+    public static final File TREES_DIR = join(GITLET_DIR, "Trees");
+
+    /**
+     * The Chunks directory, holds the chunks of large files by their SHA-1.
+     */
+    public static final File CHUNKS_DIR = join(GITLET_DIR, "Chunks");
+
+    /**
+     * The Chunked directory, holds the chunk lists of the blobs of large files.
+     */
+    public static final File CHUNKED_DIR = join(GITLET_DIR, "Chunked");
+
     public static final File BRANCHES_DIR = join(GITLET_DIR, "Branches");
 
+    /**
+     * The Packs directory, holds packfiles of objects compacted by gc.
+     */
+    public static final File PACKS_DIR = join(GITLET_DIR, "Packs");
+
     public static final File CURRENT_BRANCH = join(GITLET_DIR, "current branch");
+    /**
+     * The commit-graph file, the parents, timestamps and generations of all commits.
+     */
+    public static final File COMMIT_GRAPH = join(GITLET_DIR, "commit-graph");
+    /**
+     * The message index file, the message of every commit for find.
+     */
+    public static final File MESSAGE_INDEX = join(GITLET_DIR, "message-index");
+    /**
+     * The id index file, every commit id in order for finding commits by a prefix.
+     */
+    public static final File COMMIT_IDS = join(GITLET_DIR, "commit-ids");
+    /**
+     * Marks a repository whose object directories are split into shards.
+     */
+    public static final File SHARDED = join(GITLET_DIR, "sharded");
     /**
      * The head file represents the current commit.
      */
@@ -53,6 +109,19 @@ public class Repository implements Serializable {
      */
     String curBranch;
     
+    /**
+     * Number of commits global-log decodes in parallel before writing them out.
+     */
+    private static final int LOG_BATCH = 1024;
+
+    /**
+     * Whether objects are checked against their ids as they are loaded (the --verify option).
+     */
+    public static boolean verifyObjects = false;
+
+    /** The ref and index updates of the current command. */
+    private transient Transaction transaction = new Transaction();
+
     public boolean backupPerformed = false; // to backup GITLET_DIR state each time when the program terminates
 
     public void mapInitializations() {
@@ -74,10 +143,27 @@ public class Repository implements Serializable {
 
         mapInitializations();
 
-        head = readContentsAsString(HEAD);
-        curBranch = readContentsAsString(CURRENT_BRANCH);
-        if (index.exists())// ensure that index file exists cuz it can not be existent if there aren`t files staged before.
-            stagingArea = readObject(index, StagingArea.class);
+        // repositories made before shards have their objects moved into them once.
+        if (!SHARDED.exists()) {
+            ObjectDir.migrate(COMMITS_DIR);
+            ObjectDir.migrate(BLOBS_DIR);
+            ObjectDir.migrate(TREES_DIR);
+            writeContents(SHARDED, "");
+        }
+
+        head = Transaction.readRef(HEAD);
+        curBranch = Transaction.readRef(CURRENT_BRANCH);
+        stagingArea = StagingArea.load(); // an empty one if there aren`t files staged before.
+    }
+
+    /** Applies the ref and index updates of the current command. */
+    public void commitUpdates() {
+        transaction.commit();
+    }
+
+    /** Gives up the ref and index updates of the current command. */
+    public void abortUpdates() {
+        transaction.abort();
     }
 
     public void init() {
@@ -90,48 +176,126 @@ public class Repository implements Serializable {
         GITLET_DIR.mkdirs();
         COMMITS_DIR.mkdirs();
         BLOBS_DIR.mkdirs();
+        TREES_DIR.mkdirs();
         BRANCHES_DIR.mkdirs();
+        writeContents(SHARDED, "");
 
         mapInitializations();
 
         // create initial commit has no parent and no files
         Commit initialCommit = new Commit("initial commit", null);
         // save the initialCommit object in the file named by its SHA1 id
+        initialCommit.save();
         String initialCommitId = initialCommit.getId();
-        File commitFile = new File(COMMITS_DIR, initialCommitId);
-        writeObject(commitFile, initialCommit);
+        CommitGraph.get(initialCommitId);
+        MessageIndex.get(initialCommitId);
 
         // save the head state in HEAD file.
         head = initialCommitId;
-        writeContents(HEAD, head);
+        transaction.write(HEAD, head);
 
         // save the master branch in a file in BRANCHES_DIR.
         File masterBranchFile = new File(BRANCHES_DIR, "master");
-        writeContents(masterBranchFile, initialCommitId); // master file content is the most recent commit in the master branch which is the initial commit id
+        transaction.write(masterBranchFile, initialCommitId); // master file content is the most recent commit in the master branch which is the initial commit id
 
         // by default the first branch is the current branch is the master branch.
         curBranch = "master";
-        writeContents(CURRENT_BRANCH ,  curBranch);// Save the current branch which is master in the CURRENT_BRANCH file.
+        transaction.write(CURRENT_BRANCH ,  curBranch);// Save the current branch which is master in the CURRENT_BRANCH file.
     }
 
     public void add(String fileName) {
+        add(Collections.singletonList(fileName));
+    }
+
+    /** Stages the files named by PATHS, each a file, a directory standing
+     *  for every file below it, or a glob pattern such as "src/*.java".
+     *  The files are hashed in parallel and the index is saved once. */
+    public void add(List<String> paths) {
 
         validateInitialized();
 
-        File addedFileForAddition = new File(CWD, fileName);
+        TreeSet<String> fileNames = new TreeSet<String>();
+        for (String path : paths) {
+            File file = new File(CWD, path);
+            if (file.isFile()) {
+                fileNames.add(relativeName(file.toPath()));
+            } else if (file.isDirectory()) {
+                fileNames.addAll(filesBelow(file.toPath(), p -> true));
+            } else if (path.matches(".*[*?\\[{].*")) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                List<String> matched = filesBelow(CWD.toPath(), p -> matcher.matches(Paths.get(relativeName(p))));
+                if (matched.isEmpty()) {
+                    System.out.println("No files match " + path + ".");
+                    return;
+                }
+                fileNames.addAll(matched);
+            } else {
+                // if there is no such a file in CWD => exit without changing anything.
+                System.out.println("File does not exist.");
+                return;
+            }
+        }
 
-        // if there is no such a file in CWD => exit without changing anything.
-        if (!addedFileForAddition.exists()) {
-            System.out.println("File does not exist.");
-            return;
+        stagingArea.syncWithMonitor();
+        Progress progress = new Progress("Hashing files", fileNames.size());
+        stagingArea.addAllForAddition(new ArrayList<String>(fileNames), progress::step);
+        progress.done();
+        storeStaged(fileNames);
+        // write the new staged files in index file
+        stagingArea.save(transaction);
+    }
+
+    /** Stores the content of the staged files FILENAMES the repository does
+     *  not have yet, several at once, so that commit finds every blob it
+     *  refers to.  A file that changed since it was hashed is staged again
+     *  with what was stored. */
+    private void storeStaged(Collection<String> fileNames) {
+        HashMap<String, String> added = stagingArea.getAddedFiles();
+        List<String> missing = fileNames.stream()
+                .filter(fileName -> !ObjectDir.hasObject(added.get(fileName)))
+                .collect(Collectors.toList());
+        List<File> files = missing.stream().map(fileName -> new File(CWD, fileName)).collect(Collectors.toList());
+        Progress progress = new Progress("Writing objects", files.size());
+        List<String> stored = Blob.storeAll(files, progress::step);
+        progress.done();
+        for (int i = 0; i < missing.size(); i += 1) {
+            if (!stored.get(i).equals(added.get(missing.get(i)))) {
+                stagingArea.addForAddition(missing.get(i), stored.get(i)); // changed while it was hashed.
+            }
         }
+    }
 
-            stagingArea.addForAddition(fileName);
-            // write the new staged files in index file
-            stagingArea.save();
+    /** Returns the names, relative to CWD, of the files below DIR whose
+     *  paths satisfy FILTER, leaving out the repository itself. */
+    private static List<String> filesBelow(Path dir, Predicate<Path> filter) {
+        Path gitlet = GITLET_DIR.toPath();
+        long start = Profile.start();
+        try (Stream<Path> files = Files.walk(dir.toAbsolutePath().normalize())) {
+            return files.filter(p -> !p.startsWith(gitlet) && Files.isRegularFile(p) && filter.test(p))
+                    .map(Repository::relativeName)
+                    .collect(Collectors.toList());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Profile.count(Profile.Counter.LISTINGS);
+            Profile.stop(Profile.Timer.LIST, start);
+        }
+    }
+
+    /** Returns the name of the file at PATH relative to CWD, with "/"
+     *  between its parts as in commits. */
+    private static String relativeName(Path path) {
+        Path relative = CWD.toPath().relativize(path.toAbsolutePath().normalize());
+        return relative.toString().replace(File.separatorChar, '/');
     }
 
     public void commit(String message) {
+        commit(message, null);
+    }
+
+    /** Makes a commit with MESSAGE of the staged files, merging the commit
+     *  SECONDPARENT into the current one unless it is null. */
+    private void commit(String message, String secondParent) {
 
         validateInitialized();
 
@@ -147,18 +311,21 @@ public class Repository implements Serializable {
 
         // Get the parent commit (the current commit)
         Commit parent = Commit.getCommit(head);
-        String parentId = parent.getId();
+        String parentId = head; // the id it was saved under; getId() of a read-back commit may differ.
 
         // Create new commit with message and parent
-        Commit newCommit = new Commit(message, parentId);
-        newCommit.setFiles(parent.getFiles());
+        Commit newCommit = new Commit(message, parentId, secondParent);
+        newCommit.setBase(parent);
+
+        // blobs add did not store, as for files staged by older versions, are written first.
+        storeStaged(new TreeSet<String>(stagingArea.getAddedFiles().keySet()));
 
         // Apply added and removed files
         HashMap<String, String> addedFiles = stagingArea.getAddedFiles();
         HashMap<String, String> removedFiles = stagingArea.getRemovedFiles();
 
         for (Map.Entry<String, String> entry : addedFiles.entrySet()) {
-            newCommit.addFile(entry.getKey());
+            newCommit.addFile(entry.getKey(), entry.getValue());
         }
 
         for (Map.Entry<String, String> entry : removedFiles.entrySet()) {
@@ -169,18 +336,20 @@ public class Repository implements Serializable {
         newCommit.save();
 
         String newCommitId = newCommit.getId();
+        CommitGraph.get(parentId).add(newCommitId, newCommit);
+        MessageIndex.get(parentId).add(newCommitId, message);
 
         // update the most recent commit in the curBranch to the new commit.
         File curBranchFile = new File(BRANCHES_DIR, curBranch);
-        writeContents(curBranchFile, newCommitId);
+        transaction.write(curBranchFile, newCommitId);
 
         // Update HEAD
         head = newCommitId;
-        writeContents(HEAD, head);
+        transaction.write(HEAD, head);
 
         // Clear and save the staging area
         stagingArea.clear();
-        stagingArea.save();
+        stagingArea.save(transaction);
     }
 
     public void rm(String fileMarkedForRemoval_Name) {
@@ -190,6 +359,7 @@ public class Repository implements Serializable {
         // Unstage the file if it is currently staged for addition.
         if (stagingArea.existentForAddition(fileMarkedForRemoval_Name)) {
             stagingArea.unStage(fileMarkedForRemoval_Name);
+            stagingArea.save(transaction);
             return;
         }
 
@@ -199,34 +369,51 @@ public class Repository implements Serializable {
 
             // mark the file for removal.
             stagingArea.markForRemoval(fileMarkedForRemoval_Name);
-            stagingArea.save();
+            stagingArea.save(transaction);
 
             // Delete the file from CWD.
-            Utils.restrictedDelete(fileMarkedForRemoval_Name);
+            deleteWorkingFile(fileMarkedForRemoval_Name);
         } else
             System.out.println("No reason to remove the file.");
     }
 
+    /** Returns the full id of the commit whose id is or starts with COMMITID,
+     *  or null if there is no such commit. */
+    private String resolveCommitId(String commitId) {
+        if (commitId.length() == UID_LENGTH) {
+            return commitId;
+        }
+        List<String> matches = IdIndex.get(head).find(commitId);
+        if (matches.size() > 1) {
+            throw error("Commit id %s is ambiguous; it could be %s%s.", commitId,
+                    String.join(", ", matches.subList(0, Math.min(matches.size(), 5))),
+                    matches.size() > 5 ? " or " + (matches.size() - 5) + " more" : "");
+        }
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
     public void find(String message) {
 
         validateInitialized();
 
-        boolean foundCommits = false; // Indicating that there is at least one commit found with the given message.
+        // answer from the message index, without reading any commit.
+        printFound(MessageIndex.get(head).find(message));
+    }
 
-        // retrieve the commit files.
-        List<String> commitFiles = Utils.plainFilenamesIn(COMMITS_DIR); // get all the commit file names from the COMMITS_DIR
-        for (String commitId : commitFiles) {
+    /** Prints the ids of the commits whose message matches the regular expression REGEX. */
+    public void findMatching(String regex) {
 
-            // get the commit object from the commit file.
-            Commit commit = Commit.getCommit(commitId);
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commitId);
+        validateInitialized();
 
-                foundCommits = true;
-            }
-        }
+        printFound(MessageIndex.get(head).search(regex));
+    }
+
+    private static void printFound(List<String> commitIds) {
 
-        if (!foundCommits)
+        for (String commitId : commitIds)
+            System.out.println(commitId);
+
+        if (commitIds.isEmpty())
             System.out.println("Found no commit with that message.");
     }
 
@@ -234,44 +421,45 @@ public class Repository implements Serializable {
 
         validateInitialized();
 
-        Commit current = Commit.getCommit(head);// start iterate from the most recent commit.
-
-        while (current != null) {
-
-            System.out.println(current);
-            Commit parent = Commit.getCommit(current.getParent()); // git the parent by its id from the commits map.
-            current = parent;
-        }
-
-        /*
-        if( commit is merged ){
-
-        .....
+        // walk the first parents in the commit graph, starting from the most recent commit.
+        CommitGraph graph = CommitGraph.get(head);
 
+        for (int i = graph.indexOf(head); i != CommitGraph.NONE; i = graph.parentAt(i, 0)) {
+            System.out.println(Commit.getCommit(graph.idAt(i)));
         }
-        */
     }
 
-    public void global_log() {
+    public void global_log(boolean byTime) {
 
         validateInitialized();
 
-        // retrieve the commit files
-        List<String> commitFiles = Utils.plainFilenamesIn(COMMITS_DIR); // get all the commit file names from the COMMITS_DIR
-
-        for (String commitId : commitFiles) {
-
-            // get the commit object from the commit file.
-            Commit commit = Commit.getCommit(commitId);
-            System.out.println(commit);
+        // retrieve the commit ids, in id order or newest first.
+        List<String> commitFiles = new ArrayList<String>(Commit.listIds()); // get all the commit ids, loose or packed.
+        if (byTime) {
+            CommitGraph graph = CommitGraph.get(head);
+            Map<String, Long> times = new HashMap<String, Long>();
+            for (String commitId : commitFiles) {
+                int i = graph.indexOf(commitId);
+                times.put(commitId, i != CommitGraph.NONE ? graph.timeAt(i)
+                        : Commit.getCommit(commitId).getTimestamp().getTime());
+            }
+            commitFiles.sort((a, b) -> times.get(a).equals(times.get(b))
+                    ? a.compareTo(b) : Long.compare(times.get(b), times.get(a)));
         }
-        /*
-        if( commit is merged ){
-
-        .....
 
+        // decode and format each batch of commits in parallel, then write it in order through one buffered sink.
+        System.out.flush();
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16),
+                false, StandardCharsets.UTF_8);
+        for (int from = 0; from < commitFiles.size(); from += LOG_BATCH) {
+            List<String> batch = commitFiles.subList(from, Math.min(from + LOG_BATCH, commitFiles.size()));
+            List<String> printed = batch.parallelStream()
+                    .map(commitId -> Commit.getCommit(commitId).toString())
+                    .collect(Collectors.toList());
+            for (String commit : printed)
+                out.println(commit);
         }
-        */
+        out.flush();
     }
 
     public void checkout(String fileName) {
@@ -286,11 +474,12 @@ public class Repository implements Serializable {
             // get the file from the curCommit.
             String fileId = curCommit.getFileId(fileName);
 
-            String fileContent = Blob.getBlob(fileId).getContent();// get the file content from it's blob.
-
-            // Add the file in CWD if the file doesn't exist or overwrite the file if it exists.
-            File fileInCWD = new File(CWD, fileId);
-            writeContents(fileInCWD, fileContent);
+            // Add the file in CWD if the file doesn't exist or overwrite the file if it exists,
+            // streaming the content straight from its blob.
+            File fileInCWD = new File(CWD, fileName);
+            Blob.getBlob(fileId).writeTo(fileInCWD);
+            stagingArea.recordStat(fileName, fileId);
+            stagingArea.save(transaction);
         } else
             System.out.println("File does not exist in that commit.");
     }
@@ -299,7 +488,7 @@ public class Repository implements Serializable {
 
         validateInitialized();
 
-        Commit commit = Commit.getCommit(commitId); // retrieve the commit by its Id.
+        Commit commit = Commit.getCommit(resolveCommitId(commitId)); // retrieve the commit by its (abbreviated) Id.
         if (commit != null) {
 
             // Restore the file from the commit IF it contains it.
@@ -307,11 +496,12 @@ public class Repository implements Serializable {
 
                 String fileId = commit.getFileId(fileName); // get the file from the curCommit.
 
-                String fileContent = Blob.getBlob(fileId).getContent();// get the file content from it's blob.
-
-                // Add the file in CWD if the file doesn't exist or overwrite the file if it exists.
-                File fileInCWD = new File(CWD, fileId);
-                writeContents(fileInCWD, fileContent);
+                // Add the file in CWD if the file doesn't exist or overwrite the file if it exists,
+                // streaming the content straight from its blob.
+                File fileInCWD = new File(CWD, fileName);
+                Blob.getBlob(fileId).writeTo(fileInCWD);
+                stagingArea.recordStat(fileName, fileId);
+                stagingArea.save(transaction);
             } else // If no such a file in the commit has the given commitId.
                 System.out.println("File does not exist in that commit.");
         } else // if no such a commit id.
@@ -329,71 +519,30 @@ public class Repository implements Serializable {
             return;
         }
         // get the branch (the most recent commit in that branch)
-        String branchId = readContentsAsString(BranchFile);
+        String branchId = Transaction.readRef(BranchFile);
 
         // if i am already in the branch branchName => then i go nowhere .
-        if (head.equals(branchId)) {
+        if (branchName.equals(curBranch)) {
             System.out.println("No need to checkout the current branch.");
             return;
         }
 
-        // Retrieve all files in the commit at the head of the given branch.
-        Commit branchHead = Commit.getCommit(branchId);
-
-        // iterate all the files in CWD and if there is a file exists in the branchHead => update it in the CWD, if not => remove it.
-        List<String> cwdFiles = Utils.plainFilenamesIn(CWD); // retrieve all the files from the cwd.
-        Map<String, Integer> cwdFilesMap = new HashMap<String, Integer>();// create a map for constant time access.
-
-        assert cwdFiles != null;
-        for (String fileName : cwdFiles) { // iterate CWD files.
-
-            cwdFilesMap.put(fileName, 0);
-
-            File fileInCWD = new File(CWD, fileName);
-
-            if (branchHead.containsFile(fileName)) { // check if file exists in the branch head commit to be updated to the branchHead version.
-
-                // find the id of the fileInBranchHead
-                String fileIdInBranchHead = branchHead.getFileId(fileName);
-
-                // find the id of the same file in CWD.
-                String fileIdInCWD = Utils.sha1(fileInCWD);
-
-                // if they are not the same then => overwrite the file in CWD
-                if (!fileIdInBranchHead.equals(fileIdInCWD)) {
-
-                    // check if the file is tracked.
-                    if (stagingArea.containsAddedFile(fileIdInCWD)) {
-                        String FileContentInBranchHead = Blob.getBlob(fileIdInBranchHead).getContent();
-                        writeContents(fileInCWD, FileContentInBranchHead);
-                    } else // the file is not tracked.
-                        System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                }
-            } else //delete the file from CWD.
-                restrictedDelete(fileInCWD);
-        }
-
-        // Iterate the file in Branch head to add the files are not there in CWD.
-        for (Map.Entry<String, String> entry : branchHead.getFiles().entrySet()) {
-
-            String fileName = entry.getKey();
-
-            // add the newFile if its not existent in CWD.
-            if (!cwdFilesMap.containsKey(fileName)) {
-                File newFile = new File(CWD, fileName);
-                String newFileContent = Blob.getBlob(branchHead.getFileId(fileName)).getContent();
-                writeContents(newFile, newFileContent);
-            }
+        // only the files that differ between the two commits are touched.
+        if (!switchFiles(Commit.getCommit(branchId))) {
+            return;
         }
 
         // Update the current branch to the branchName.
         curBranch = branchName;
+        head = branchId;
 
-        // update the file saves the current branch.
-        writeObject(CURRENT_BRANCH, curBranch);
+        // update the files saving the current branch and commit.
+        transaction.write(CURRENT_BRANCH, curBranch);
+        transaction.write(HEAD, head);
 
         // Clear the staging area.
         stagingArea.clear();
+        stagingArea.save(transaction);
     }
 
     public void branch(String branchName) {
@@ -408,7 +557,7 @@ public class Repository implements Serializable {
         }
 
         // save the new branch in BRANCHES_DIR.
-        writeContents(branchFile, head);
+        transaction.write(branchFile, head);
     }
 
     public void rm_branch(String branchName) {
@@ -427,20 +576,486 @@ public class Repository implements Serializable {
         }
 
         // delete the branch file from the BRANCHES_DIR.
-        Utils.restrictedDelete(branchFile);
+        transaction.delete(branchFile);
+
+
+    }
+
+    /**
+     * Moves all objects into one new packfile, storing the versions of a file
+     * or directory as deltas against each other and every commit as a delta
+     * against its child, then deletes the loose objects and the old packs.
+     */
+    public void gc() {
+
+        validateInitialized();
+
+        PACKS_DIR.mkdirs();
+        List<Pack> oldPacks = new ArrayList<Pack>(Pack.all());
+
+        // newest commits first, so every commit finds its child in the window.
+        List<String> commitIds = new ArrayList<String>(Commit.listIds());
+        Map<String, Long> times = new HashMap<String, Long>();
+        for (String commitId : commitIds) {
+            times.put(commitId, Commit.getCommit(commitId).getTimestamp().getTime());
+        }
+        commitIds.sort((a, b) -> Long.compare(times.get(b), times.get(a)));
+
+        PackWriter writer = new PackWriter(PACKS_DIR);
+        Map<String, String> childOf = new HashMap<String, String>(); // commit id -> a child written before it.
+        Map<String, String> newerVersion = new HashMap<String, String>(); // file path -> last blob written for it.
+        Map<String, String> newerTree = new HashMap<String, String>(); // directory path -> last tree written for it.
+
+        for (String commitId : commitIds) {
 
+            Commit commit = Commit.getCommit(commitId);
+            // objects are packed in the current format, which migrates old serialized ones.
+            writer.add(commitId, Pack.COMMIT, commit.encode(), childOf.get(commitId));
+            if (commit.getParent() != null)
+                childOf.putIfAbsent(commit.getParent(), commitId);
+
+            // only trees not shared with a commit packed before need to be visited.
+            Tree.walk(commit.getTree(), "", (treeId, path) -> {
+                if (writer.contains(treeId))
+                    return false;
+                Tree tree = Tree.getTree(treeId);
+                writer.add(treeId, Pack.TREE, tree.encode(), newerTree.get(path));
+                newerTree.put(path, treeId);
+
+                for (Map.Entry<String, String> entry : tree.getFiles().entrySet()) {
+                    String fileId = entry.getValue();
+                    String filePath = path + entry.getKey();
+                    // chunked blobs stay as they are, sharing their chunks with the other versions.
+                    if (!writer.contains(fileId) && !Blob.getBlob(fileId).isChunked()) {
+                        writer.add(fileId, Pack.BLOB, Blob.getBlob(fileId).getContents(), newerVersion.get(filePath));
+                        newerVersion.put(filePath, fileId);
+                    }
+                }
+                return true;
+            });
+        }
+
+        // objects no commit refers to are kept as they are.
+        List<String> looseTrees = ObjectDir.ids(TREES_DIR).collect(Collectors.toList());
+        for (String treeId : looseTrees) {
+            writer.add(treeId, Pack.TREE, Tree.getTree(treeId).encode(), null);
+        }
+        for (String treeId : Pack.ids(Pack.TREE)) {
+            writer.add(treeId, Pack.TREE, Tree.getTree(treeId).encode(), null);
+        }
+        List<String> looseBlobs = ObjectDir.ids(BLOBS_DIR).collect(Collectors.toList());
+        for (String fileId : looseBlobs) {
+            writer.add(fileId, Pack.BLOB, Blob.getBlob(fileId).getContents(), null);
+        }
+        for (String fileId : Pack.ids(Pack.BLOB)) {
+            writer.add(fileId, Pack.BLOB, Blob.getBlob(fileId).getContents(), null);
+        }
 
+        File newPack = writer.finish();
+        transaction.commit(); // the pack must be on disk before the copies below go.
+        Pack.reload();
+        Blob.CACHE.clear(); // cached blobs may point at loose files deleted below.
+
+        // everything is safely packed now => drop the old copies.
+        for (Pack oldPack : oldPacks) {
+            File oldFile = oldPack.getFile();
+            if (!oldFile.equals(newPack)) {
+                String name = oldFile.getName();
+                new File(PACKS_DIR, name.substring(0, name.length() - 5) + ".idx").delete();
+                Pack.bloomFile(oldFile).delete();
+                oldFile.delete();
+            }
+        }
+        ObjectDir.ids(COMMITS_DIR).forEach(commitId -> ObjectDir.file(COMMITS_DIR, commitId).delete());
+        for (String fileId : looseBlobs) {
+            ObjectDir.file(BLOBS_DIR, fileId).delete();
+        }
+        for (String treeId : looseTrees) {
+            ObjectDir.file(TREES_DIR, treeId).delete();
+        }
     }
 
+    /** Prints the branches, the staged files and how the working files
+     *  differ from the current commit and the staging area.  With a monitor
+     *  running, only the files it saw change are looked at. */
     public void status() {
-        //............
+
+        validateInitialized();
+
+        stagingArea.syncWithMonitor();
+
+        System.out.println("=== Branches ===");
+        for (String branchName : plainFilenamesIn(BRANCHES_DIR)) {
+            System.out.println(branchName.equals(curBranch) ? "*" + branchName : branchName);
+        }
+        System.out.println();
+
+        HashMap<String, String> addedFiles = stagingArea.getAddedFiles();
+        HashMap<String, String> removedFiles = stagingArea.getRemovedFiles();
+        System.out.println("=== Staged Files ===");
+        new TreeSet<String>(addedFiles.keySet()).forEach(System.out::println);
+        System.out.println();
+
+        System.out.println("=== Removed Files ===");
+        new TreeSet<String>(removedFiles.keySet()).forEach(System.out::println);
+        System.out.println();
+
+        Map<String, String> trackedFiles = Commit.getCommit(head).getFiles();
+        Set<String> workingFiles = stagingArea.workingFiles();
+        TreeMap<String, String> modifications = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : trackedFiles.entrySet()) {
+            String fileName = entry.getKey();
+            if (!addedFiles.containsKey(fileName) && !removedFiles.containsKey(fileName)) {
+                describeChange(fileName, entry.getValue(), workingFiles, modifications);
+            }
+        }
+        for (Map.Entry<String, String> entry : addedFiles.entrySet()) {
+            describeChange(entry.getKey(), entry.getValue(), workingFiles, modifications);
+        }
+        System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> entry : modifications.entrySet()) {
+            System.out.println(entry.getKey() + " (" + entry.getValue() + ")");
+        }
+        System.out.println();
+
+        System.out.println("=== Untracked Files ===");
+        for (String fileName : new TreeSet<String>(workingFiles)) {
+            if (!addedFiles.containsKey(fileName)
+                    && (!trackedFiles.containsKey(fileName) || removedFiles.containsKey(fileName))) {
+                System.out.println(fileName);
+            }
+        }
+        System.out.println();
+
+        // keep the monitor token and the stat data of the files just hashed.
+        stagingArea.save(transaction);
+    }
+
+    /** Records in MODIFICATIONS how the working file FILENAME differs from
+     *  the version FILEID, if it does, given the WORKINGFILES. */
+    private void describeChange(String fileName, String fileId, Set<String> workingFiles,
+                                Map<String, String> modifications) {
+        boolean present = fileName.indexOf('/') < 0 ? workingFiles.contains(fileName)
+                : new File(CWD, fileName).isFile(); // WORKINGFILES only lists the top directory.
+        if (!present) {
+            modifications.put(fileName, "deleted");
+        } else if (!fileId.equals(stagingArea.idOf(fileName))) {
+            modifications.put(fileName, "modified");
+        }
+    }
+
+    /** Prints how the working files differ from the staging area: from the
+     *  version staged, or else the one in the current commit.  Files whose
+     *  stat data shows them unchanged are not read. */
+    public void diff() {
+
+        validateInitialized();
+
+        stagingArea.syncWithMonitor();
+
+        Map<String, String> indexFiles = Commit.getCommit(head).getFiles();
+        indexFiles.putAll(stagingArea.getAddedFiles());
+        indexFiles.keySet().removeAll(stagingArea.getRemovedFiles().keySet());
+
+        PrintStream out = diffOutput();
+        for (String fileName : new TreeSet<String>(indexFiles.keySet())) {
+            String indexId = indexFiles.get(fileName);
+            File file = new File(CWD, fileName);
+            if (!file.isFile()) {
+                Diff.print(out, fileName, stagedContents(indexId, fileName), null);
+            } else if (!indexId.equals(stagingArea.idOf(fileName))) {
+                Diff.print(out, fileName, stagedContents(indexId, fileName), readContents(file));
+            }
+        }
+        out.flush();
+
+        // keep the monitor token and the stat data of the files just hashed.
+        stagingArea.save(transaction);
+    }
+
+    /** Prints how the staging area differs from the current commit. */
+    public void diffCached() {
+
+        validateInitialized();
+
+        Commit headCommit = Commit.getCommit(head);
+        TreeMap<String, String> changed = new TreeMap<String, String>(stagingArea.getAddedFiles());
+        for (String fileName : stagingArea.getRemovedFiles().keySet()) {
+            changed.put(fileName, null);
+        }
+
+        PrintStream out = diffOutput();
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            String fileName = entry.getKey();
+            String headId = headCommit.getFileId(fileName);
+            if (!Objects.equals(headId, entry.getValue())) {
+                Diff.print(out, fileName, blobContents(headId), blobContents(entry.getValue()));
+            }
+        }
+        out.flush();
+    }
+
+    /** Prints how the commit TOID differs from the commit FROMID, either
+     *  of which may be abbreviated.  Only the subtrees and blobs whose ids
+     *  differ between them are read. */
+    public void diff(String fromId, String toId) {
+
+        validateInitialized();
+
+        String fromCommitId = resolveCommitId(fromId);
+        String toCommitId = resolveCommitId(toId);
+        Commit from = fromCommitId == null ? null : Commit.getCommit(fromCommitId);
+        Commit to = toCommitId == null ? null : Commit.getCommit(toCommitId);
+        if (from == null || to == null) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+
+        Map<String, String> fromFiles = new HashMap<String, String>();
+        Map<String, String> toFiles = new HashMap<String, String>();
+        Tree.diff(from.getTree(), to.getTree(), "", fromFiles, toFiles);
+        TreeSet<String> fileNames = new TreeSet<String>(fromFiles.keySet());
+        fileNames.addAll(toFiles.keySet());
+
+        PrintStream out = diffOutput();
+        for (String fileName : fileNames) {
+            Diff.print(out, fileName, blobContents(fromFiles.get(fileName)),
+                    blobContents(toFiles.get(fileName)));
+        }
+        out.flush();
+    }
+
+    /** Returns a buffered stream to print differences to, which must be
+     *  flushed at the end. */
+    private static PrintStream diffOutput() {
+        System.out.flush();
+        return new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the content of the blob FILEID, or null if it is null.
+     *  Throws if the blob is missing. */
+    private static byte[] blobContents(String fileId) {
+        if (fileId == null) {
+            return null;
+        }
+        Blob blob = Blob.getBlob(fileId);
+        if (blob == null) {
+            throw error("Blob %s is missing.", fileId);
+        }
+        return blob.getContents();
+    }
+
+    /** Returns the content of the blob FILEID of the staging area for the
+     *  working file FILENAME.  A blob staged before blobs were stored at add
+     *  time is read from the working file instead. */
+    private static byte[] stagedContents(String fileId, String fileName) {
+        if (!ObjectDir.hasObject(fileId) && new File(CWD, fileName).isFile()) {
+            return readContents(new File(CWD, fileName));
+        }
+        return blobContents(fileId);
+    }
+
+    /** Checks out the commit COMMITID, which may be abbreviated, or the
+     *  current commit if it is null, moving the current branch to it and
+     *  clearing the staging area.  Only the files that differ between the
+     *  current commit and it are touched. */
+    public void reset(String commitId) {
+
+        validateInitialized();
+
+        String targetId = commitId == null ? head : resolveCommitId(commitId);
+        Commit target = targetId == null ? null : Commit.getCommit(targetId);
+        if (target == null) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        if (!switchFiles(target)) {
+            return;
+        }
+
+        head = targetId;
+        transaction.write(new File(BRANCHES_DIR, curBranch), head);
+        transaction.write(HEAD, head);
+
+        stagingArea.clear();
+        stagingArea.save(transaction);
+    }
+
+    /** Merges the files of the branch BRANCHNAME into the current branch,
+     *  judging each file by its blob ids in the two branch heads and their
+     *  split point, so that blobs are only read for conflicting files. */
+    public void merge(String branchName) {
+
+        validateInitialized();
+
+        if (!stagingArea.getAddedFiles().isEmpty() || !stagingArea.getRemovedFiles().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return;
+        }
+        File branchFile = new File(BRANCHES_DIR, branchName);
+        if (!branchFile.exists()) {
+            System.out.println("A branch with that name does not exist.");
+            return;
+        }
+        if (branchName.equals(curBranch)) {
+            System.out.println("Cannot merge a branch with itself.");
+            return;
+        }
+        String branchId = Transaction.readRef(branchFile);
+
+        // find the split point in the commit graph.
+        CommitGraph graph = CommitGraph.get(head);
+        if (graph.indexOf(branchId) == CommitGraph.NONE) {
+            CommitGraph.rebuild();
+            graph = CommitGraph.get(head);
+        }
+        int base = graph.mergeBase(graph.indexOf(head), graph.indexOf(branchId));
+        String splitId = base == CommitGraph.NONE ? null : graph.idAt(base);
+        if (branchId.equals(splitId)) {
+            System.out.println("Given branch is an ancestor of the current branch.");
+            return;
+        }
+        if (head.equals(splitId)) {
+            if (switchFiles(Commit.getCommit(branchId))) {
+                head = branchId;
+                transaction.write(new File(BRANCHES_DIR, curBranch), head);
+                transaction.write(HEAD, head);
+                stagingArea.save(transaction);
+                System.out.println("Current branch fast-forwarded.");
+            }
+            return;
+        }
+
+        Map<String, String> splitFiles = splitId == null
+                ? new HashMap<String, String>() : Commit.getCommit(splitId).getFiles();
+        Map<String, String> currentFiles = Commit.getCommit(head).getFiles();
+        Map<String, String> branchFiles = Commit.getCommit(branchId).getFiles();
+
+        // classify the files changed by the given branch since the split point.
+        Map<String, String> taken = new HashMap<String, String>(); // to the given version, null to remove.
+        List<String> conflicts = new ArrayList<String>();
+        Set<String> paths = new HashSet<String>(branchFiles.keySet());
+        paths.addAll(splitFiles.keySet());
+        for (String fileName : paths) {
+            String splitVersion = splitFiles.get(fileName);
+            String current = currentFiles.get(fileName);
+            String given = branchFiles.get(fileName);
+            if (Objects.equals(given, splitVersion) || Objects.equals(given, current)) {
+                continue; // unchanged in the given branch, or changed the same way in both.
+            }
+            if (Objects.equals(current, splitVersion)) {
+                taken.put(fileName, given);
+            } else {
+                conflicts.add(fileName);
+            }
+        }
+
+        // every check comes before the first change to the working tree, so an abort leaves it as it was.
+        List<String> written = taken.keySet().stream()
+                .filter(fileName -> taken.get(fileName) != null)
+                .collect(Collectors.toList());
+        written.addAll(conflicts);
+        for (String fileName : written) {
+            if (isUntracked(fileName, currentFiles)) {
+                return;
+            }
+        }
+
+        // deletions first, so a file may take the place of a directory they empty.
+        for (Map.Entry<String, String> entry : taken.entrySet()) {
+            if (entry.getValue() == null) {
+                deleteWorkingFile(entry.getKey());
+                stagingArea.markForRemoval(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, String> entry : taken.entrySet()) {
+            if (entry.getValue() != null) {
+                File file = new File(CWD, entry.getKey());
+                file.getParentFile().mkdirs();
+                Blob.getBlob(entry.getValue()).writeTo(file);
+                stagingArea.addForAddition(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String fileName : conflicts) {
+            File file = new File(CWD, fileName);
+            file.getParentFile().mkdirs();
+            writeContents(file, "<<<<<<< HEAD\n",
+                    conflictSide(currentFiles.get(fileName)), "=======\n",
+                    conflictSide(branchFiles.get(fileName)), ">>>>>>>\n");
+            stagingArea.addForAddition(fileName);
+        }
+
+        commit("Merged " + branchName + " into " + curBranch + ".", branchId);
+        if (!conflicts.isEmpty()) {
+            System.out.println("Encountered a merge conflict.");
+        }
+    }
+
+    /** Returns the content of the blob FILEID for one side of a conflict,
+     *  or nothing if the file is not on that side. */
+    private static byte[] conflictSide(String fileId) {
+        return fileId == null ? new byte[0] : Blob.getBlob(fileId).getContents();
     }
 
-    public void reset() {
-        //.....
+    /** Returns true, after saying so, if the working file FILENAME, or a
+     *  file where one of its directories must go, would be overwritten
+     *  although the current commit, whose files are CURRENTFILES, does not
+     *  track it. */
+    private static boolean isUntracked(String fileName, Map<String, String> currentFiles) {
+        boolean inTheWay = !currentFiles.containsKey(fileName) && new File(CWD, fileName).exists();
+        for (int i = fileName.indexOf('/'); !inTheWay && i >= 0; i = fileName.indexOf('/', i + 1)) {
+            String parent = fileName.substring(0, i); // an untracked file where a directory must go.
+            inTheWay = !currentFiles.containsKey(parent) && new File(CWD, parent).isFile();
+        }
+        if (inTheWay) {
+            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
+            return true;
+        }
+        return false;
     }
 
-    public void merge() {
-        //.....
+    /** Replaces the working files of the current commit by those of TARGET,
+     *  writing or deleting only the files whose ids differ between the two,
+     *  as found by comparing their trees.  Returns false without touching
+     *  anything if one of them is an untracked file. */
+    private boolean switchFiles(Commit target) {
+        Map<String, String> currentFiles = new HashMap<String, String>();
+        Map<String, String> targetFiles = new HashMap<String, String>();
+        Tree.diff(Commit.getCommit(head).getTree(), target.getTree(), "", currentFiles, targetFiles);
+
+        for (String fileName : targetFiles.keySet()) {
+            if (isUntracked(fileName, currentFiles)) {
+                return false;
+            }
+        }
+
+        // deletions first, so a file may take the place of a directory it empties.
+        List<String> deleted = currentFiles.keySet().stream()
+                .filter(fileName -> !targetFiles.containsKey(fileName))
+                .collect(Collectors.toList());
+        deleted.parallelStream().forEach(Repository::deleteWorkingFile);
+        List<String> written = new ArrayList<String>(targetFiles.keySet());
+        written.parallelStream().forEach(fileName -> {
+            File file = new File(CWD, fileName);
+            file.getParentFile().mkdirs();
+            Blob.getBlob(targetFiles.get(fileName)).writeTo(file);
+        });
+
+        for (String fileName : deleted) {
+            stagingArea.forgetStat(fileName);
+        }
+        for (String fileName : written) {
+            stagingArea.recordStat(fileName, targetFiles.get(fileName));
+        }
+        return true;
+    }
+
+    /** Deletes the working file FILENAME and the directories it leaves empty. */
+    private static void deleteWorkingFile(String fileName) {
+        File file = new File(CWD, fileName);
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(CWD) && dir.delete(); dir = dir.getParentFile()) {
+            // deleted an emptied directory; its parent may be empty now too.
+        }
     }
 }
@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/** A long-running process that runs commands for one repository, so they
+ *  pay neither the start of a JVM nor the loading of the indexes and
+ *  caches again.
+ *
+ *  The server listens on the Unix socket .gitlet/server.sock and runs one
+ *  command at a time.  A client sends the directory it runs in and its
+ *  arguments; the server answers with frames of a stream number (1 for
+ *  standard output, 2 for standard error), a length and that many bytes,
+ *  and a last frame of stream 0.  A client in another directory is turned
+ *  away with an empty answer and runs the command itself, as does any
+ *  client that finds no server.  Before each command the server compares
+ *  the files it keeps in memory with the ones on disk and forgets all it
+ *  loaded if another process changed them.
+ */
+class Server {
+
+    /** The socket of the running server. */
+    static final File SOCKET = Utils.join(Repository.GITLET_DIR, "server.sock");
+
+    /** Environment variable that, when set, keeps commands in their own
+     *  process. */
+    private static final String NO_SERVER = "GITLET_NO_SERVER";
+
+    /** How long to wait for a new server to listen, in milliseconds. */
+    private static final long TIMEOUT = 5000;
+
+    /** Frame streams. */
+    private static final int END = 0, OUT = 1, ERR = 2;
+
+    /** What the repository files looked like after the last command. */
+    private static String lastSeen;
+
+    /** Runs the command ARGS through the server of the repository in the
+     *  current directory and returns true, or returns false if there is no
+     *  such server or it would not run it. */
+    static boolean forward(String[] args) {
+        if (System.getenv(NO_SERVER) != null || !SOCKET.exists()
+                || args[0].equals("server") || args[0].equals("monitor")) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeUTF(Repository.CWD.getCanonicalPath());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream answer = new DataInputStream(Channels.newInputStream(channel));
+            boolean answered = false;
+            while (true) {
+                int stream = answer.read();
+                if (stream < 0) {
+                    return answered; // the server went away; rerun unless it already said something.
+                }
+                if (stream == END) {
+                    return answer.readBoolean();
+                }
+                byte[] bytes = new byte[answer.readInt()];
+                answer.readFully(bytes);
+                (stream == ERR ? System.err : System.out).write(bytes);
+                (stream == ERR ? System.err : System.out).flush();
+                answered = true;
+            }
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Starts a server for the current repository in a new background
+     *  process and waits until it listens. */
+    static void start() {
+        if (isRunning()) {
+            System.out.println("A server is already running.");
+            return;
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main", "server", "--foreground");
+        builder.directory(Repository.CWD);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            builder.start();
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (!isRunning() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("Cannot start the server: %s", excp.getMessage());
+        }
+    }
+
+    /** Asks the running server to stop. */
+    static void stop() {
+        if (!isRunning()) {
+            System.out.println("No server is running.");
+            return;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeUTF(Repository.CWD.getCanonicalPath());
+            request.writeInt(2);
+            request.writeUTF("server");
+            request.writeUTF("--stop");
+            request.flush();
+            Channels.newInputStream(channel).readAllBytes();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot stop the server: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns true if a server listens on the socket. */
+    static boolean isRunning() {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            return channel.isConnected();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Serves commands until asked to stop or until the repository goes
+     *  away. */
+    static void run() {
+        if (isRunning()) {
+            System.out.println("A server is already running.");
+            return;
+        }
+        SOCKET.delete(); // left by a server that died.
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            lastSeen = fingerprint();
+            while (Repository.GITLET_DIR.isDirectory()) {
+                try (SocketChannel channel = server.accept()) {
+                    if (!serve(channel)) {
+                        break;
+                    }
+                } catch (IOException excp) {
+                    // the client went away; wait for the next one.
+                }
+            }
+        } catch (IOException excp) {
+            System.out.println("Cannot listen on " + SOCKET + ": " + excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Runs the command a client sends over CHANNEL and returns false if it
+     *  asked the server to stop. */
+    private static boolean serve(SocketChannel channel) throws IOException {
+        DataInputStream request = new DataInputStream(Channels.newInputStream(channel));
+        String cwd = request.readUTF();
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = request.readUTF();
+        }
+        DataOutputStream answer = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        if (!cwd.equals(Repository.CWD.getCanonicalPath())) {
+            answer.writeByte(END);
+            answer.writeBoolean(false);
+            answer.flush();
+            return true;
+        }
+        if (Arrays.asList(args).equals(List.of("server", "--stop"))) {
+            answer.writeByte(END);
+            answer.writeBoolean(true);
+            answer.flush();
+            return false;
+        }
+
+        String seen = fingerprint();
+        if (!seen.equals(lastSeen)) {
+            forgetLoaded();
+        }
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream clientOut = new PrintStream(new BufferedOutputStream(frames(answer, OUT), 1 << 16),
+                false, StandardCharsets.UTF_8);
+        PrintStream clientErr = new PrintStream(frames(answer, ERR), true, StandardCharsets.UTF_8);
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            Main.execute(args);
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+        } finally {
+            clientOut.flush();
+            clientErr.flush();
+            System.setOut(out);
+            System.setErr(err);
+        }
+        lastSeen = fingerprint();
+        answer.writeByte(END);
+        answer.writeBoolean(true);
+        answer.flush();
+        return true;
+    }
+
+    /** Returns a stream writing what it is given to ANSWER as frames of
+     *  STREAM. */
+    private static OutputStream frames(DataOutputStream answer, int stream) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) throws IOException {
+                if (len > 0) {
+                    answer.writeByte(stream);
+                    answer.writeInt(len);
+                    answer.write(bytes, off, len);
+                }
+            }
+        };
+    }
+
+    /** Returns a description of the repository files whose content the
+     *  server keeps loaded, which changes whenever one of them does. */
+    private static String fingerprint() {
+        StringBuilder result = new StringBuilder();
+        for (File file : new File[] {Repository.COMMIT_GRAPH, Repository.MESSAGE_INDEX,
+            Repository.COMMIT_IDS}) {
+            FileStat stat = FileStat.of(file);
+            result.append(file.getName()).append(stat == null ? " -"
+                    : " " + stat.size + " " + stat.mtime + " " + stat.inode + " " + stat.ctime).append('\n');
+        }
+        String[] packs = Repository.PACKS_DIR.list();
+        if (packs != null) {
+            Arrays.sort(packs);
+            result.append(String.join(" ", packs));
+        }
+        return result.toString();
+    }
+
+    /** Forgets every index, pack and object loaded so far. */
+    private static void forgetLoaded() {
+        CommitGraph.forget();
+        MessageIndex.forget();
+        IdIndex.forget();
+        Pack.reload();
+        Commit.CACHE.clear();
+        Tree.CACHE.clear();
+        Blob.CACHE.clear();
+    }
+}
@@ -3,19 +3,210 @@ package gitlet;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashMap;
-
-import static gitlet.Utils.readContents;
-import static gitlet.Utils.writeObject;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 public class StagingArea implements Serializable {
 
+    /** Pinned so that index files written by older versions still deserialize. */
+    private static final long serialVersionUID = 5919506685979839186L;
+
     /** map represents the added/removed file with file name as a key and the file id as a value*/
     private HashMap<String, String> addedFiles;
     private HashMap<String, String> removedFiles;
 
+    /** Stat data and content id of the working files hashed so far, by file name. */
+    private HashMap<String, FileStat> stats;
+
+    /** The monitor token the working files below are known as of, or null
+     *  if no monitor was running when the index was last saved. */
+    private String monitorToken;
+
+    /** Names of the plain files directly in the working directory as of
+     *  monitorToken. */
+    private HashSet<String> workingFiles;
+
+    /** Names of the working files the monitor saw change since the index
+     *  was last saved, null unless syncWithMonitor told us. */
+    private transient Set<String> dirty;
+
+    /** Whether syncWithMonitor brought workingFiles up to date. */
+    private transient boolean synced;
+
+    /** Modification time of the index file when it was read, in nanoseconds.
+     *  A file modified at or after it may have changed again within the same
+     *  timestamp tick after it was hashed, so its stat data is not trusted. */
+    private transient long indexTime;
+
+    /** Version of the binary format written by encode. */
+    private static final int FORMAT = 2;
+
     public StagingArea() {
         this.addedFiles = new HashMap<String, String>();
         this.removedFiles = new HashMap<String, String>();
+        this.stats = new HashMap<String, FileStat>();
+    }
+
+    /** Returns the staging area saved in the index file, or an empty one. */
+    public static StagingArea load() {
+        if (!Repository.index.exists()) {
+            return new StagingArea();
+        }
+        StagingArea stagingArea = decode(Utils.readContents(Repository.index));
+        stagingArea.indexTime = FileStat.of(Repository.index).mtime;
+        return stagingArea;
+    }
+
+    /** Returns the compact binary form of this staging area. */
+    public byte[] encode() {
+        BinaryWriter out = new BinaryWriter('I', FORMAT);
+        out.writeVarint(addedFiles.size());
+        for (Map.Entry<String, String> entry : addedFiles.entrySet()) {
+            out.writeString(entry.getKey()).writeId(entry.getValue());
+        }
+        out.writeVarint(removedFiles.size());
+        for (Map.Entry<String, String> entry : removedFiles.entrySet()) {
+            out.writeString(entry.getKey()).writeOptionalId(entry.getValue());
+        }
+        out.writeVarint(stats().size());
+        for (Map.Entry<String, FileStat> entry : stats().entrySet()) {
+            FileStat stat = entry.getValue();
+            out.writeString(entry.getKey()).writeVarint(stat.size).writeLong(stat.mtime)
+                    .writeLong(stat.inode).writeLong(stat.ctime).writeId(stat.id);
+        }
+        if (monitorToken == null || workingFiles == null) {
+            return out.writeByte(0).toByteArray();
+        }
+        out.writeByte(1).writeString(monitorToken).writeVarint(workingFiles.size());
+        for (String fileName : workingFiles) {
+            out.writeString(fileName);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the staging area whose stored form is STORED, either written
+     *  by encode or serialized by an older version. */
+    public static StagingArea decode(byte[] stored) {
+        if (Utils.isSerialized(stored)) {
+            return Utils.deserialize(stored, StagingArea.class);
+        }
+        BinaryReader in = new BinaryReader(stored, 'I');
+        StagingArea stagingArea = new StagingArea();
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            stagingArea.addedFiles.put(in.readString(), in.readId());
+        }
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            stagingArea.removedFiles.put(in.readString(), in.readOptionalId());
+        }
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            String fileName = in.readString();
+            stagingArea.stats.put(fileName, new FileStat(in.readVarint(), in.readLong(),
+                    in.readLong(), in.readLong(), in.readId()));
+        }
+        if (in.version() >= 2 && in.readByte() != 0) {
+            stagingArea.monitorToken = in.readString();
+            stagingArea.workingFiles = new HashSet<String>();
+            for (long n = in.readVarint(); n > 0; n -= 1) {
+                stagingArea.workingFiles.add(in.readString());
+            }
+        }
+        return stagingArea;
+    }
+
+    private HashMap<String, FileStat> stats() {
+        if (stats == null) { // index written before stat data was kept.
+            stats = new HashMap<String, FileStat>();
+        }
+        return stats;
+    }
+
+    /** Returns the id of the content of the working file FILENAME, hashing it
+     *  only if its stat data changed since it was last hashed. */
+    public String idOf(String fileName) {
+        FileStat stat = hashed(fileName);
+        stats().put(fileName, stat);
+        return stat.id;
+    }
+
+    /** Returns the stat data of the working file FILENAME with the id of
+     *  its content, hashing it only if its stat data changed since it was
+     *  last hashed.  Changes nothing, so several threads may call it. */
+    private FileStat hashed(String fileName) {
+        File file = new File(Repository.CWD, fileName);
+        FileStat cached = stats().get(fileName);
+        if (cached != null && dirty != null && fileName.indexOf('/') < 0 && !dirty.contains(fileName)) {
+            return cached; // unchanged since its stat data was last checked; the monitor only watches the top directory.
+        }
+        FileStat current = FileStat.of(file);
+        if (cached != null && cached.sameAs(current) && cached.mtime < indexTime) {
+            return cached;
+        }
+        if (current == null) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        return current.withId(Utils.sha1(file));
+    }
+
+    /** Asks the monitor, if one is running, which working files changed
+     *  since the index was last brought up to date with it.  Until then,
+     *  idOf trusts the stat data of the other files without looking at them
+     *  and workingFiles comes from the journal instead of the directory.
+     *  When the monitor cannot tell, every file is looked at once. */
+    public void syncWithMonitor() {
+        Monitor.Changes changes = Monitor.changesSince(monitorToken);
+        if (changes == null) {
+            monitorToken = null;
+            workingFiles = null;
+            return;
+        }
+        monitorToken = changes.token;
+        synced = true;
+        if (changes.paths != null && workingFiles != null) {
+            dirty = changes.paths;
+            for (String fileName : dirty) {
+                if (new File(Repository.CWD, fileName).isFile()) {
+                    workingFiles.add(fileName);
+                } else {
+                    workingFiles.remove(fileName);
+                }
+            }
+            return;
+        }
+
+        // start over: keep only the stat data still true of the files now.
+        workingFiles = new HashSet<String>(Utils.plainFilenamesIn(Repository.CWD));
+        stats().entrySet().removeIf(entry -> {
+            FileStat current = FileStat.of(new File(Repository.CWD, entry.getKey()));
+            return !entry.getValue().sameAs(current) || entry.getValue().mtime >= indexTime;
+        });
+        dirty = new HashSet<String>();
+    }
+
+    /** Returns the names of the plain files in the working directory. */
+    public Set<String> workingFiles() {
+        if (synced) {
+            return workingFiles;
+        }
+        return new HashSet<String>(Utils.plainFilenamesIn(Repository.CWD));
+    }
+
+    /** Records that the working file FILENAME was just written with the
+     *  content FILEID. */
+    public void recordStat(String fileName, String fileId) {
+        FileStat current = FileStat.of(new File(Repository.CWD, fileName));
+        if (current != null) {
+            stats().put(fileName, current.withId(fileId));
+        } else {
+            stats().remove(fileName);
+        }
+    }
+
+    /** Forgets the stat data of the working file FILENAME. */
+    public void forgetStat(String fileName) {
+        stats().remove(fileName);
     }
 
     public HashMap<String, String> getAddedFiles() {
@@ -31,15 +222,36 @@ public class StagingArea implements Serializable {
     }
 
     public void addForAddition(String fileName) {
-        File file = new File (Repository.CWD, fileName);
-        String fileId = Utils.sha1(Utils.readContentsAsString(file));
+        String fileId = idOf(fileName);
         addedFiles.put(fileName, fileId);
     }
 
+    /** Stages the working file FILENAME, whose content FILEID was just
+     *  written to it, for addition. */
+    public void addForAddition(String fileName, String fileId) {
+        recordStat(fileName, fileId);
+        addedFiles.put(fileName, fileId);
+    }
+
+    /** Stages the working files FILENAMES for addition, hashing them in
+     *  parallel and calling HASHED after each one. */
+    public void addAllForAddition(List<String> fileNames, Runnable hashed) {
+        FileStat[] stats = new FileStat[fileNames.size()];
+        IntStream.range(0, stats.length).parallel().forEach(i -> {
+            stats[i] = hashed(fileNames.get(i));
+            hashed.run();
+        });
+        for (int i = 0; i < stats.length; i += 1) {
+            stats().put(fileNames.get(i), stats[i]);
+            addedFiles.put(fileNames.get(i), stats[i].id);
+        }
+    }
+
     public void markForRemoval(String fileName) {
         File file = new File (Repository.CWD, fileName);
-        String fileId = Utils.sha1(Utils.readContentsAsString(file));
+        String fileId = file.exists() ? idOf(fileName) : null;
         removedFiles.put(fileName, fileId);
+        forgetStat(fileName);
     }
 
     public boolean existentForAddition(String fileName) {
@@ -48,15 +260,24 @@ public class StagingArea implements Serializable {
 
     public void clear() {
         addedFiles.clear();
+        removedFiles.clear();
     }
 
     public void unStage(String fileName) {
         addedFiles.remove(fileName);
     }
 
-    /** save the the current staging area object in the File file which is always index file*/
-    public void save() {
-        writeObject(Repository.index, this);
+    /** save the the current staging area object in the File file which is always index file,
+     *  as part of TRANSACTION.  Stat data no older than the index written
+     *  is left out, and the index written again without it: a file changed
+     *  again within that timestamp tick would look unchanged to every later
+     *  command once the index is rewritten with a newer time, so such files
+     *  are hashed again instead (git's racy-clean smudging). */
+    public void save(Transaction transaction) {
+        FileStat written = FileStat.of(transaction.write(Repository.index, encode()));
+        if (written != null && stats().values().removeIf(stat -> stat.mtime >= written.mtime)) {
+            transaction.write(Repository.index, encode());
+        }
     }
 
 }
@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** The ref and index updates of one command, applied together at its end.
+ *
+ *  The new content of each file goes to a lock file next to it, created
+ *  only if there is none, so that two commands never update the same file
+ *  at once.  On commit the lock files and every object written by the
+ *  command are flushed to disk together, then renamed over their targets
+ *  one by one and the directories holding them flushed.  So each file is
+ *  either wholly old or wholly new after a crash, and no ref points at an
+ *  object that was lost; but a crash between two renames may leave some of
+ *  a command's files updated and not others, such as a branch moved to a
+ *  new commit while HEAD still names the old one.  Until commit the old
+ *  files stay as they were.
+ *
+ *  The commit graph, message index and id index are not part of this:
+ *  they are caches of what the commits hold, appended to as commits are
+ *  made, and are rebuilt from the commits when they are missing, cut short
+ *  or do not know HEAD. */
+class Transaction {
+
+    /** Files written by this process that must reach the disk before any
+     *  ref may point at them. */
+    private static final List<File> pending = Collections.synchronizedList(new ArrayList<File>());
+
+    /** Lock file of each file to update, or null for files to delete, in
+     *  the order they were first locked. */
+    private final Map<File, File> locks = new LinkedHashMap<File, File>();
+
+    /** Notes that FILE, an object just written, must be flushed before the
+     *  next transaction commits. */
+    static void track(File file) {
+        pending.add(file);
+    }
+
+    /** Arranges for TARGET to hold CONTENTS, each a String or byte[], when
+     *  this transaction commits, and returns the lock file holding them
+     *  until then. */
+    File write(File target, Object... contents) {
+        File lock = lock(target);
+        Utils.writeContents(lock, contents);
+        locks.put(target, lock);
+        return lock;
+    }
+
+    /** Arranges for TARGET to be deleted when this transaction commits. */
+    void delete(File target) {
+        lock(target);
+        locks.put(target, null);
+    }
+
+    /** Returns the lock file of TARGET, taking it first if this transaction
+     *  does not hold it yet. */
+    private File lock(File target) {
+        File lock = new File(target.getPath() + ".lock");
+        if (!locks.containsKey(target)) {
+            try {
+                Files.createFile(lock.toPath());
+            } catch (IOException excp) {
+                throw Utils.error("Unable to lock %s: another command may be running; "
+                        + "if not, remove %s.", target.getName(), lock.getPath());
+            }
+            locks.put(target, lock);
+        }
+        return lock;
+    }
+
+    /** Makes every update of this transaction, and every object tracked so
+     *  far, durable and visible. */
+    void commit() {
+        if (locks.isEmpty() && pending.isEmpty()) {
+            return;
+        }
+        Set<File> dirs = new LinkedHashSet<File>();
+        List<File> written = new ArrayList<File>();
+        synchronized (pending) {
+            for (File object : pending) {
+                written.add(object);
+                dirs.add(object.getParentFile());
+                dirs.add(object.getParentFile().getParentFile()); // holds a shard that may be new.
+            }
+            pending.clear();
+        }
+        for (Map.Entry<File, File> entry : locks.entrySet()) {
+            if (entry.getValue() != null) {
+                written.add(entry.getValue());
+            }
+            dirs.add(entry.getKey().getParentFile());
+        }
+
+        // one flush for the whole command, issued in parallel so the file system can group them.
+        written.parallelStream().forEach(file -> force(file, StandardOpenOption.WRITE));
+        try {
+            for (Map.Entry<File, File> entry : locks.entrySet()) {
+                if (entry.getValue() != null) {
+                    Files.move(entry.getValue().toPath(), entry.getKey().toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.deleteIfExists(entry.getKey().toPath());
+                    Files.deleteIfExists(new File(entry.getKey().getPath() + ".lock").toPath());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        locks.clear();
+        dirs.parallelStream().forEach(dir -> force(dir, StandardOpenOption.READ));
+    }
+
+    /** Gives up the updates of this transaction, releasing its locks. */
+    void abort() {
+        for (File target : locks.keySet()) {
+            new File(target.getPath() + ".lock").delete();
+        }
+        locks.clear();
+    }
+
+    /** Flushes FILE, opened with MODE, to disk. */
+    private static void force(File file, StandardOpenOption mode) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), mode)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // some systems cannot flush directories; their entries are then as safe as they get.
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns the text of the ref file REF, reading refs that older
+     *  versions wrote as serialized strings too. */
+    static String readRef(File ref) {
+        byte[] stored = Utils.readContents(ref);
+        if (Utils.isSerialized(stored)) {
+            return Utils.deserialize(stored, String.class);
+        }
+        return new String(stored, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A directory of a commit's snapshot: the files and subdirectories it
+ *  contains, by name, each with the id of its blob or tree.  Trees are
+ *  stored under the SHA-1 of their encoding, so a commit that changes a few
+ *  files only writes the trees along their paths and shares every other
+ *  tree with its parent. */
+public class Tree {
+
+    /** Recently used trees. */
+    static final ObjectCache<Tree> CACHE = new ObjectCache<Tree>("trees", 8192, 32L << 20);
+
+    /** Version of the binary format written by encode. */
+    private static final int FORMAT = 1;
+
+    /** Entry kind of a file. */
+    private static final int FILE = 0;
+
+    /** Entry kind of a subdirectory. */
+    private static final int DIRECTORY = 1;
+
+    /** The blob or tree id of each entry, by name. */
+    private final TreeMap<String, String> ids;
+
+    /** The kind of each entry, FILE or DIRECTORY, by name. */
+    private final TreeMap<String, Integer> kinds;
+
+    private Tree() {
+        ids = new TreeMap<String, String>();
+        kinds = new TreeMap<String, Integer>();
+    }
+
+    /** Returns the tree TREEID, or null if there is no such tree. */
+    public static Tree getTree(String treeId) {
+        Tree cached = CACHE.get(treeId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long start = Profile.start();
+        File treeFile = ObjectDir.file(Repository.TREES_DIR, treeId);
+        byte[] stored = treeFile.exists() ? Utils.readContents(treeFile) : Pack.read(treeId);
+        if (stored == null) {
+            return null;
+        }
+        if (Repository.verifyObjects && !Utils.sha1(stored).equals(treeId)) {
+            throw Utils.error("Tree %s is corrupt.", treeId);
+        }
+        Tree tree = decode(stored);
+        CACHE.put(treeId, tree, stored.length);
+        Profile.count(Profile.Counter.TREES_LOADED);
+        Profile.stop(Profile.Timer.LOAD, start);
+        return tree;
+    }
+
+    /** Returns the id of the blob at PATH below the tree TREEID, or null if
+     *  there is no such file. */
+    public static String lookup(String treeId, String path) {
+        Tree tree = getTree(treeId);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            String name = path.substring(0, slash);
+            if (tree.kinds.getOrDefault(name, FILE) != DIRECTORY) {
+                return null;
+            }
+            tree = getTree(tree.ids.get(name));
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        return tree.kinds.getOrDefault(path, DIRECTORY) == FILE ? tree.ids.get(path) : null;
+    }
+
+    /** Adds every file below the tree TREEID to FILES, by its path prefixed
+     *  with PREFIX. */
+    public static void flatten(String treeId, String prefix, Map<String, String> files) {
+        Tree tree = getTree(treeId);
+        for (Map.Entry<String, String> entry : tree.ids.entrySet()) {
+            if (tree.kinds.get(entry.getKey()) == DIRECTORY) {
+                flatten(entry.getValue(), prefix + entry.getKey() + "/", files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Adds every file whose blob differs between the trees FROMID and TOID
+     *  (null for an empty tree), by its path prefixed with PREFIX, to FROM
+     *  with its id in FROMID if it is there and to TO with its id in TOID if
+     *  it is there.  Subtrees with the same id on both sides are the same
+     *  files, so they are skipped without being read. */
+    public static void diff(String fromId, String toId, String prefix,
+                            Map<String, String> from, Map<String, String> to) {
+        Tree a = fromId == null ? new Tree() : getTree(fromId);
+        Tree b = toId == null ? new Tree() : getTree(toId);
+        TreeSet<String> names = new TreeSet<String>(a.ids.keySet());
+        names.addAll(b.ids.keySet());
+        for (String name : names) {
+            String idA = a.ids.get(name);
+            String idB = b.ids.get(name);
+            Integer kindA = a.kinds.get(name);
+            Integer kindB = b.kinds.get(name);
+            if (Objects.equals(idA, idB) && Objects.equals(kindA, kindB)) {
+                continue;
+            }
+            if (Objects.equals(kindA, DIRECTORY) || Objects.equals(kindB, DIRECTORY)) {
+                diff(Objects.equals(kindA, DIRECTORY) ? idA : null, Objects.equals(kindB, DIRECTORY) ? idB : null,
+                        prefix + name + "/", from, to);
+            }
+            if (Objects.equals(kindA, FILE)) {
+                from.put(prefix + name, idA);
+            }
+            if (Objects.equals(kindB, FILE)) {
+                to.put(prefix + name, idB);
+            }
+        }
+    }
+
+    /** Calls VISITOR on the tree TREEID stored at PATH and then on every
+     *  subtree below it, skipping subtrees for which VISITOR returns false. */
+    public static void walk(String treeId, String path, Visitor visitor) {
+        if (!visitor.visit(treeId, path)) {
+            return;
+        }
+        Tree tree = getTree(treeId);
+        for (Map.Entry<String, String> entry : tree.ids.entrySet()) {
+            if (tree.kinds.get(entry.getKey()) == DIRECTORY) {
+                walk(entry.getValue(), path + entry.getKey() + "/", visitor);
+            }
+        }
+    }
+
+    /** Something looking at the trees of a snapshot. */
+    interface Visitor {
+        /** Looks at the tree TREEID at PATH ("" for the root, otherwise
+         *  ending in a slash); returns false to skip its subtrees. */
+        boolean visit(String treeId, String path);
+    }
+
+    /** Returns the ids of the files directly in this tree, by name. */
+    public Map<String, String> getFiles() {
+        Map<String, String> files = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            if (kinds.get(entry.getKey()) == FILE) {
+                files.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return files;
+    }
+
+    /** Writes the tree made by applying CHANGES to the tree BASEID (null for
+     *  an empty tree) and returns its id.  CHANGES maps file paths to the new
+     *  blob ids, or to null for removed files.  Only the trees along the
+     *  changed paths are written. */
+    public static String update(String baseId, Map<String, String> changes) {
+        return update(baseId, changes, true);
+    }
+
+    /** As for update(BASEID, CHANGES), but returns null instead of writing
+     *  an empty tree unless ROOT. */
+    private static String update(String baseId, Map<String, String> changes, boolean root) {
+        Tree tree = new Tree();
+        if (baseId != null) {
+            Tree base = getTree(baseId);
+            tree.ids.putAll(base.ids);
+            tree.kinds.putAll(base.kinds);
+        }
+
+        // split the changes into the ones of this directory and the ones of each subdirectory.
+        Map<String, Map<String, String>> below = new HashMap<String, Map<String, String>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash), k -> new HashMap<String, String>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                tree.remove(path);
+            } else {
+                tree.put(path, FILE, change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : below.entrySet()) {
+            String name = dir.getKey();
+            String oldId = tree.kinds.getOrDefault(name, FILE) == DIRECTORY ? tree.ids.get(name) : null;
+            String newId = update(oldId, dir.getValue(), false);
+            if (newId == null) {
+                tree.remove(name);
+            } else {
+                tree.put(name, DIRECTORY, newId);
+            }
+        }
+
+        if (tree.ids.isEmpty() && !root) {
+            return null;
+        }
+        return tree.save();
+    }
+
+    private void put(String name, int kind, String id) {
+        ids.put(name, id);
+        kinds.put(name, kind);
+    }
+
+    private void remove(String name) {
+        ids.remove(name);
+        kinds.remove(name);
+    }
+
+    /** Saves this tree unless it already exists and returns its id. */
+    private String save() {
+        byte[] stored = encode();
+        String treeId = Utils.sha1(stored);
+        File treeFile = ObjectDir.file(Repository.TREES_DIR, treeId);
+        if (!treeFile.exists() && !Pack.contains(treeId)) {
+            Utils.writeContents(ObjectDir.create(Repository.TREES_DIR, treeId), stored);
+            Transaction.track(treeFile);
+        }
+        CACHE.put(treeId, this, stored.length);
+        return treeId;
+    }
+
+    /** Returns the binary form of this tree. */
+    public byte[] encode() {
+        BinaryWriter out = new BinaryWriter('T', FORMAT).writeVarint(ids.size());
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            out.writeString(entry.getKey()).writeByte(kinds.get(entry.getKey()))
+                    .writeId(entry.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree whose binary form is STORED. */
+    public static Tree decode(byte[] stored) {
+        BinaryReader in = new BinaryReader(stored, 'T');
+        Tree tree = new Tree();
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            String name = in.readString();
+            int kind = in.readByte();
+            tree.put(name, kind, in.readId());
+        }
+        return tree;
+    }
+}
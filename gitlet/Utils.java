@@ -1,11 +1,14 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -36,13 +39,17 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Profile.start();
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    Profile.count(Profile.Counter.SHA1_BYTES, ((byte[]) val).length);
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(bytes);
+                    Profile.count(Profile.Counter.SHA1_BYTES, bytes.length);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
@@ -54,6 +61,9 @@ class Utils {
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            Profile.count(Profile.Counter.SHA1);
+            Profile.stop(Profile.Timer.HASH, start);
         }
     }
 
@@ -63,6 +73,81 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the buffers used to hash and copy file contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** A SHA-1 digest per thread, reused across calls. */
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+        });
+
+    /** A copy buffer per thread, reused across calls. */
+    private static final ThreadLocal<byte[]> BUFFER =
+        ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /** Returns this thread's SHA-1 digest, reset and ready for use. */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1_DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /** Returns this thread's buffer of BUFFER_SIZE bytes. */
+    static byte[] buffer() {
+        return BUFFER.get();
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, read through a
+     *  fixed-size buffer so that memory use does not depend on its size.
+     *  FILE must be a normal file.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static String sha1(File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        long start = Profile.start();
+        MessageDigest md = sha1Digest();
+        byte[] buffer = buffer();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                Profile.count(Profile.Counter.SHA1_BYTES, n);
+                Profile.count(Profile.Counter.BYTES_READ, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Profile.count(Profile.Counter.SHA1);
+        Profile.stop(Profile.Timer.HASH, start);
+        return bytesToId(md.digest(), 0);
+    }
+
+    /** Returns the 20 raw bytes of the hexadecimal SHA-1 UID ID. */
+    static byte[] idToBytes(String id) {
+        byte[] result = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal UID of the 20 raw bytes of BYTES starting
+     *  at OFFSET. */
+    static String bytesToId(byte[] bytes, int offset) {
+        StringBuilder result = new StringBuilder(UID_LENGTH);
+        for (int i = offset; i < offset + UID_LENGTH / 2; i += 1) {
+            result.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            result.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return result.toString();
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -98,7 +183,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Profile.count(Profile.Counter.BYTES_READ, contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -124,11 +211,10 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                        : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Profile.count(Profile.Counter.BYTES_WRITTEN, bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -140,6 +226,7 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        Profile.count(Profile.Counter.DESERIALIZE);
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
@@ -152,6 +239,22 @@ class Utils {
         }
     }
 
+    /** Returns true iff BYTES start with the Java serialization header. */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 4 && (bytes[0] & 0xff) == 0xac
+            && (bytes[1] & 0xff) == 0xed && bytes[2] == 0 && bytes[3] == 5;
+    }
+
+    /** Returns true iff FILE starts with the Java serialization header. */
+    static boolean isSerialized(File file) {
+        byte[] header = new byte[4];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return in.readNBytes(header, 0, 4) == 4 && isSerialized(header);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -172,7 +275,10 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        long start = Profile.start();
         String[] files = dir.list(PLAIN_FILES);
+        Profile.count(Profile.Counter.LISTINGS);
+        Profile.stop(Profile.Timer.LIST, start);
         if (files == null) {
             return null;
         } else {
@@ -209,6 +315,7 @@ class Utils {
 
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
+        Profile.count(Profile.Counter.SERIALIZE);
         try {
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
@@ -222,6 +329,37 @@ class Utils {
 
 
 
+    /** Classes the objects older versions serialized are made of. */
+    private static final String SERIALIZED_CLASSES = "gitlet.*;java.lang.*;java.util.*;!*";
+
+    /** Return an object of type T read from the serialized BYTES, casting
+     *  it to EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        return deserialize(bytes, expectedClass, SERIALIZED_CLASSES);
+    }
+
+    /** Return an object of type T read from the serialized BYTES, casting
+     *  it to EXPECTEDCLASS, and refusing any class the ObjectInputFilter
+     *  pattern CLASSES rejects before creating it.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass, String classes) {
+        Profile.count(Profile.Counter.DESERIALIZE);
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            in.setObjectInputFilter(ObjectInputFilter.Config.createFilter(classes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as